@@ -0,0 +1,133 @@
+import jxl.Workbook;
+import jxl.write.Label;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * A throwaway cache directory holding an SDE excerpt and a market log, so benchmarks never touch the network.
+ * <p>
+ * The excerpt in {@code bench/resources} covers the minerals, the ores and a few modules. It is padded with
+ * deterministic synthetic items, each reprocessing into one to four minerals, to bring the dumps closer to the size
+ * of the real ones.
+ */
+final class BenchFixture {
+    static final int REGION = 10000002; // The Forge
+    static final List<Integer> MINERALS = List.of(34, 35, 36, 37, 38, 39, 40);
+
+    private static final int FIRST_SYNTHETIC_ID = 1_000_000;
+    private static final int MAX_XLS_ROWS = 65_536;
+
+    private BenchFixture() {
+    }
+
+    /**
+     * Writes the fixture into a new temporary directory.
+     *
+     * @param syntheticItems how many generated items to add to the excerpt
+     */
+    static Path create(int syntheticItems) throws IOException {
+        Path dir = Files.createTempDirectory("eve-bench");
+        List<String[]> types = readCsv("invTypes.csv");
+        List<String[]> materials = readCsv("invTypeMaterials.csv");
+        if (types.size() + syntheticItems >= MAX_XLS_ROWS) {
+            throw new IllegalArgumentException("An xls sheet holds at most " + (MAX_XLS_ROWS - 1) + " types");
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < syntheticItems; i++) {
+            int typeId = FIRST_SYNTHETIC_ID + i;
+            types.add(new String[]{String.valueOf(typeId), "0", "Synthetic Item " + i, "", "1000",
+                    String.valueOf(1 + random.nextInt(50)), "0", "1"});
+            List<Integer> minerals = new ArrayList<>(MINERALS);
+            Collections.shuffle(minerals, random);
+            for (int m = 0, n = 1 + random.nextInt(4); m < n; m++) {
+                materials.add(new String[]{String.valueOf(typeId), String.valueOf(minerals.get(m)), String.valueOf(1 + random.nextInt(5000))});
+            }
+        }
+
+        writeXls(dir.resolve("invTypes.xls"), types);
+        writeCsv(dir.resolve("invTypeMaterials.csv"), materials);
+        writeMarketLog(dir.resolve("market.log"), types, random);
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static List<String[]> readCsv(String resource) throws IOException {
+        InputStream in = BenchFixture.class.getResourceAsStream("/" + resource);
+        if (in == null) throw new FileNotFoundException(resource + " is not on the classpath");
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                rows.add(line.split(",", -1));
+            }
+        }
+        return rows;
+    }
+
+    private static void writeCsv(Path file, List<String[]> rows) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (String[] row : rows) {
+                out.write(String.join(",", row));
+                out.newLine();
+            }
+        }
+    }
+
+    private static void writeXls(Path file, List<String[]> rows) throws IOException {
+        WritableWorkbook workbook = Workbook.createWorkbook(file.toFile());
+        try {
+            WritableSheet sheet = workbook.createSheet("invTypes", 0);
+            for (int r = 0; r < rows.size(); r++) {
+                String[] row = rows.get(r);
+                for (int c = 0; c < row.length; c++) {
+                    sheet.addCell(new Label(c, r, row[c]));
+                }
+            }
+            workbook.write();
+            workbook.close();
+        } catch (WriteException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Gives every type (header row skipped) stats that pass all price calculators and don't expire within a run.
+     */
+    private static void writeMarketLog(Path file, List<String[]> types, Random random) throws IOException {
+        Instant expiresAt = Instant.now().plus(365, ChronoUnit.DAYS);
+        try (MarketStore store = MarketStore.open(file)) {
+            for (int r = 1; r < types.size(); r++) {
+                double price = 1 + random.nextDouble() * 100_000;
+                Cache.APIResponse response = new Cache.APIResponse();
+                response.buyVolume = 1_000 + random.nextInt(1_000_000);
+                response.sellVolume = 1_000 + random.nextInt(1_000_000);
+                response.buyOrders = 1 + random.nextInt(200);
+                response.sellOrders = 1 + random.nextInt(200);
+                response.buyThreshold = price * 0.1;
+                response.sellThreshold = price * 10;
+                response.buyAvgFivePercent = price * 0.98;
+                response.sellAvgFivePercent = price * 1.02;
+                response.maxBuy = price;
+                response.minSell = price * 1.01;
+                store.append(REGION, Integer.parseInt(types.get(r)[0]), expiresAt, response);
+            }
+        }
+    }
+}
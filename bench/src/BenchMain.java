@@ -0,0 +1,14 @@
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks whose "Suite.case" names match the first argument, or all of them, with the allocation per
+ * operation reported. Exits with 1 if a suite failed.
+ */
+public class BenchMain {
+    static void main(String[] args) {
+        List<Harness.Suite> suites = List.of(new StartupBenchmark(), new MarketLookupBenchmark(), new SolverBenchmark());
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : ".*");
+        if (!Harness.run(suites, filter, System.out)) System.exit(1);
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A small in-process benchmark runner.
+ * <p>
+ * JMH's annotation processor refuses benchmark classes in the default package, and a named package cannot import
+ * the application's classes, so the suites describe their benchmarks to this runner instead. It runs warmup and
+ * measurement iterations like JMH does, but in the current JVM and without JMH's guards against dead-code
+ * elimination beyond the {@link Sink}. The allocation per operation, in place of JMH's GC profiler, is what every
+ * thread allocated while the operation ran, so work it hands to virtual threads or the ForkJoin pool is counted, and
+ * so is whatever the application's background threads allocate meanwhile.
+ */
+final class Harness {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // whatever the sinks saw, published so the JIT cannot drop the benchmarked work
+    static volatile long blackhole;
+
+    enum Mode {
+        /** Operations per microsecond over timed iterations. */
+        THROUGHPUT("thrpt", "ops/us"),
+        /** Milliseconds per operation over timed iterations. */
+        AVERAGE_TIME("avgt", "ms/op"),
+        /** Milliseconds of one call per iteration, for work that cannot be repeated in a loop. */
+        SINGLE_SHOT("ss", "ms/op");
+
+        final String label;
+        final String unit;
+
+        Mode(String label, String unit) {
+            this.label = label;
+            this.unit = unit;
+        }
+    }
+
+    record Settings(Mode mode, int warmups, int measurements, Duration iterationTime) {
+    }
+
+    /**
+     * Keeps the results of benchmarked calls alive; one per thread, so consuming allocates nothing and is not shared.
+     */
+    static final class Sink {
+        private long bits;
+        private Object last;
+
+        void consume(long value) {
+            bits = bits * 31 + value;
+        }
+
+        void consume(double value) {
+            consume(Double.doubleToRawLongBits(value));
+        }
+
+        void consume(Object value) {
+            last = value;
+        }
+
+        private void publish() {
+            blackhole += bits + (last == null ? 0 : 1);
+        }
+    }
+
+    interface Op {
+        void run(Sink sink) throws Exception;
+    }
+
+    /**
+     * @param op makes the operation for one thread, so each can keep its own state
+     */
+    record Case(String name, int threads, Supplier<Op> op) {
+        Case(String name, Op op) {
+            this(name, 1, () -> op);
+        }
+    }
+
+    interface Suite {
+        Settings settings();
+
+        /**
+         * The synthetic item counts to run every case with.
+         */
+        int[] syntheticItems();
+
+        void setUp(int syntheticItems) throws Exception;
+
+        void tearDown() throws Exception;
+
+        List<Case> cases();
+    }
+
+    private record Sample(double score, double allocatedPerOp) {
+    }
+
+    private Harness() {
+    }
+
+    /**
+     * Runs the cases whose "Suite.case" names match the filter.
+     *
+     * @return false if any suite failed
+     */
+    static boolean run(List<Suite> suites, Pattern filter, PrintStream out) {
+        boolean ok = true;
+        for (Suite suite : suites) {
+            String suiteName = suite.getClass().getSimpleName();
+            List<Case> cases = suite.cases().stream().filter(c -> filter.matcher(suiteName + "." + c.name()).find()).toList();
+            if (cases.isEmpty()) continue;
+            for (int syntheticItems : suite.syntheticItems()) {
+                try {
+                    suite.setUp(syntheticItems);
+                    try {
+                        for (Case c : cases) {
+                            String name = suiteName + "." + c.name() + " (syntheticItems=" + syntheticItems + ")";
+                            out.println(report(name, suite.settings(), measure(suite.settings(), c)));
+                        }
+                    } finally {
+                        suite.tearDown();
+                    }
+                } catch (Exception | LinkageError e) {
+                    // a missing native library fails its suite only
+                    ok = false;
+                    out.println(suiteName + " (syntheticItems=" + syntheticItems + ") failed: " + e);
+                    e.printStackTrace(out);
+                }
+            }
+        }
+        return ok;
+    }
+
+    private static List<Sample> measure(Settings settings, Case c) throws Exception {
+        for (int i = 0; i < settings.warmups(); i++) {
+            iteration(settings, c);
+        }
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < settings.measurements(); i++) {
+            samples.add(iteration(settings, c));
+        }
+        return samples;
+    }
+
+    private static Sample iteration(Settings settings, Case c) throws Exception {
+        if (settings.mode() == Mode.SINGLE_SHOT) {
+            Op op = c.op().get();
+            Sink sink = new Sink();
+            long allocated = THREADS.getTotalThreadAllocatedBytes();
+            long start = System.nanoTime();
+            op.run(sink);
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getTotalThreadAllocatedBytes() - allocated;
+            sink.publish();
+            return new Sample(elapsed / 1e6, allocated);
+        }
+
+        long[] operations = new long[c.threads()];
+        long[] allocatedBefore = new long[1];
+        Exception[] failure = new Exception[1];
+        CyclicBarrier start = new CyclicBarrier(c.threads(), () -> allocatedBefore[0] = THREADS.getTotalThreadAllocatedBytes());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < c.threads(); t++) {
+            int thread = t;
+            threads.add(Thread.ofPlatform().name("bench-" + t).start(() -> {
+                try {
+                    Op op = c.op().get();
+                    Sink sink = new Sink();
+                    start.await();
+                    long deadline = System.nanoTime() + settings.iterationTime().toNanos();
+                    long n = 0;
+                    do {
+                        op.run(sink);
+                        n++;
+                    } while (System.nanoTime() - deadline < 0);
+                    operations[thread] = n;
+                    sink.publish();
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the barrier action happens-before the threads pass it, and so before the joins
+        long totalAllocated = THREADS.getTotalThreadAllocatedBytes() - allocatedBefore[0];
+        synchronized (failure) {
+            if (failure[0] != null) throw failure[0];
+        }
+        long totalOperations = 0;
+        for (int t = 0; t < c.threads(); t++) {
+            totalOperations += operations[t];
+        }
+        double nanos = settings.iterationTime().toNanos();
+        double score = settings.mode() == Mode.THROUGHPUT
+                ? totalOperations / (nanos / 1e3)
+                : nanos * c.threads() / totalOperations / 1e6;
+        return new Sample(score, (double) totalAllocated / totalOperations);
+    }
+
+    private static String report(String name, Settings settings, List<Sample> samples) {
+        double mean = samples.stream().mapToDouble(Sample::score).average().orElse(Double.NaN);
+        double variance = samples.stream().mapToDouble(s -> (s.score() - mean) * (s.score() - mean)).sum() / Math.max(1, samples.size() - 1);
+        double allocated = samples.stream().mapToDouble(Sample::allocatedPerOp).average().orElse(Double.NaN);
+        return String.format("%-70s %-5s %3d %12.3f ± %9.3f %-6s %14.1f B/op",
+                name, settings.mode().label, samples.size(), mean, Math.sqrt(variance), settings.mode().unit, allocated);
+    }
+}
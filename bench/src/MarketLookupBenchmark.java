@@ -0,0 +1,77 @@
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cache hits against a table loaded from the fixture's market log. Each call reads the next type of a fixed
+ * shuffled list, so lookups don't keep hitting the same slot.
+ */
+public class MarketLookupBenchmark implements Harness.Suite {
+    private Path dir;
+    private int[] typeIds;
+    private final SimpleSolver.PriceCalculator calculator = SimpleSolver.PriceCalculator.BUY();
+
+    /** Each thread walks the shuffled list on its own. */
+    private final class Cursor {
+        int next;
+
+        int nextTypeId() {
+            int typeId = typeIds[next];
+            next = next + 1 == typeIds.length ? 0 : next + 1;
+            return typeId;
+        }
+    }
+
+    @Override
+    public Harness.Settings settings() {
+        return new Harness.Settings(Harness.Mode.THROUGHPUT, 3, 5, Duration.ofSeconds(2));
+    }
+
+    @Override
+    public int[] syntheticItems() {
+        return new int[]{40000};
+    }
+
+    @Override
+    public void setUp(int syntheticItems) throws Exception {
+        dir = BenchFixture.create(syntheticItems);
+        Cache.setCacheDir(dir);
+        Cache.initialize();
+        TypeIndex types = Cache.getYieldMatrix().types;
+        typeIds = new int[types.size()];
+        for (int i = 0; i < typeIds.length; i++) {
+            typeIds[i] = types.typeId(i);
+        }
+        Random random = new Random(42);
+        for (int i = typeIds.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = typeIds[i];
+            typeIds[i] = typeIds[j];
+            typeIds[j] = t;
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Cache.unload();
+        BenchFixture.delete(dir);
+    }
+
+    @Override
+    public List<Harness.Case> cases() {
+        return List.of(
+                // the allocating lookup, for comparison with price
+                new Harness.Case("marketValue", 1, () -> {
+                    Cursor cursor = new Cursor();
+                    return sink -> sink.consume(Cache.marketValue(cursor.nextTypeId(), BenchFixture.REGION));
+                }),
+                new Harness.Case("price", 1, this::price),
+                new Harness.Case("priceContended", 4, this::price));
+    }
+
+    private Harness.Op price() {
+        Cursor cursor = new Cursor();
+        return sink -> sink.consume(Cache.price(cursor.nextTypeId(), BenchFixture.REGION, calculator));
+    }
+}
@@ -0,0 +1,97 @@
+import com.google.ortools.Loader;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Both solvers on the fixture, with every price served from the market log.
+ */
+public class SolverBenchmark implements Harness.Suite {
+    private Path dir;
+    private SimpleSolver warmSolver;
+    private final SimpleSolver.PriceCalculator calculator = SimpleSolver.PriceCalculator.BUY();
+    private final Map<Integer, Double> required = new HashMap<>();
+
+    @Override
+    public Harness.Settings settings() {
+        return new Harness.Settings(Harness.Mode.AVERAGE_TIME, 3, 5, Duration.ofSeconds(2));
+    }
+
+    @Override
+    public int[] syntheticItems() {
+        return new int[]{5000, 40000};
+    }
+
+    @Override
+    public void setUp(int syntheticItems) throws Exception {
+        Loader.loadNativeLibraries();
+        dir = BenchFixture.create(syntheticItems);
+        Cache.setCacheDir(dir);
+        Cache.initialize();
+        warmSolver = new SimpleSolver();
+        warmSolver.solve(BenchFixture.MINERALS, BenchFixture.REGION, 0.5f, 450, calculator);
+        required.put(34, 10_000_000.0);
+        required.put(35, 2_000_000.0);
+        required.put(36, 500_000.0);
+        Solver.solve(required, BenchFixture.REGION, 0.5, 300);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Cache.unload();
+        BenchFixture.delete(dir);
+    }
+
+    @Override
+    public List<Harness.Case> cases() {
+        return List.of(
+                new Harness.Case("simpleSolverCold", sink -> sink.consume(simpleSolverCold())),
+                new Harness.Case("simpleSolverIncremental", sink -> sink.consume(simpleSolverIncremental())),
+                new Harness.Case("lpWarm", sink -> sink.consume(lpWarm())),
+                new Harness.Case("lpCold", sink -> sink.consume(lpCold())));
+    }
+
+    /**
+     * Evaluates every item from scratch.
+     */
+    Object simpleSolverCold() throws Exception {
+        return new SimpleSolver().solve(BenchFixture.MINERALS, BenchFixture.REGION, 0.5f, 450, calculator);
+    }
+
+    /**
+     * Re-solves with unchanged prices, so only the cached terms are reused.
+     */
+    Object simpleSolverIncremental() throws Exception {
+        return warmSolver.solve(BenchFixture.MINERALS, BenchFixture.REGION, 0.5f, 450, calculator);
+    }
+
+    /**
+     * Re-solves the persistent model, warm-started from the previous basis.
+     */
+    Object lpWarm() throws Exception {
+        return Solver.solve(required, BenchFixture.REGION, 0.5, 300);
+    }
+
+    /**
+     * Builds, presolves and solves a fresh model.
+     */
+    Object lpCold() throws Exception {
+        ReprocessingModel model = new ReprocessingModel(Cache.getYieldMatrix(), new int[]{34, 35, 36});
+        try {
+            model.setRequired(0, required.get(34));
+            model.setRequired(1, required.get(35));
+            model.setRequired(2, required.get(36));
+            model.setQuota(0.5);
+            for (int c = 0; c < model.columns(); c++) {
+                double price = Cache.price(model.columnTypeId(c), BenchFixture.REGION, calculator);
+                model.setCost(c, price <= 0 ? 0 : price + 300 * Cache.idToVolume(model.columnTypeId(c)));
+            }
+            return model.solve();
+        } finally {
+            model.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Cold start: compiling the SDE snapshot from the dumps, loading it back, and parsing the yields CSV on its own.
+ * The loading benchmarks start from an unloaded {@link Cache}, so these are single-shot timings.
+ */
+public class StartupBenchmark implements Harness.Suite {
+    private Path dir;
+
+    @Override
+    public Harness.Settings settings() {
+        return new Harness.Settings(Harness.Mode.SINGLE_SHOT, 3, 10, Duration.ZERO);
+    }
+
+    @Override
+    public int[] syntheticItems() {
+        return new int[]{5000, 40000};
+    }
+
+    @Override
+    public void setUp(int syntheticItems) throws Exception {
+        dir = BenchFixture.create(syntheticItems);
+        Cache.setCacheDir(dir);
+        // writes sde.bin for the snapshot benchmark
+        Cache.initialize();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Cache.unload();
+        BenchFixture.delete(dir);
+    }
+
+    @Override
+    public List<Harness.Case> cases() {
+        return List.of(
+                new Harness.Case("compileSnapshot", sink -> sink.consume(compileSnapshot())),
+                new Harness.Case("loadSnapshot", sink -> sink.consume(loadSnapshot())),
+                new Harness.Case("parseInvTypeMaterials", sink -> sink.consume(parseInvTypeMaterials())));
+    }
+
+    int compileSnapshot() throws Exception {
+        Cache.unload();
+        Files.deleteIfExists(dir.resolve("sde.bin"));
+        Cache.initialize();
+        return Cache.getYieldMatrix().rows();
+    }
+
+    int loadSnapshot() throws Exception {
+        Cache.unload();
+        Cache.initialize();
+        return Cache.getYieldMatrix().rows();
+    }
+
+    /**
+     * Parses the yields from CSV, with the types already loaded for their portion sizes.
+     */
+    int parseInvTypeMaterials() throws Exception {
+        return Cache.parseInvTypeMaterials(dir.resolve("invTypeMaterials.csv"), Cache.sde()::portionSize).rows();
+    }
+}
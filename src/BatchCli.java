@@ -0,0 +1,266 @@
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Headless reports over many input lists against one load of the SDE and market data.
+ * <p>
+ * Every input is a list as pasted into the GUI, see {@link InventoryParser}. Inputs are files, directories (every
+ * file in them, by name) or {@code -} for standard input, where a line starting with {@code ##} starts a new list
+ * named by the rest of the line. Market stats for every reprocessable item and material are fetched once, or
+ * ingested from an order dump, and resolved into one price vector; after that each list only costs its evaluation.
+ * Lists are evaluated concurrently and each one's results are written as soon as it is done, as CSV or as JSON
+ * lines, so output order follows completion.
+ * <p>
+ * A list with no readable items fails rather than being taken as "all materials", and lines that do not resolve are
+ * reported, as are market stats that could not be fetched. The exit status is 1 if any list failed or had unreadable
+ * lines, or any fetch failed.
+ */
+public class BatchCli {
+    private static final String USAGE = """
+            Usage: BatchCli [options] <file | directory | ->...
+              --format csv|json      output format (csv)
+              --out FILE             write to FILE instead of standard output
+              --region ID            region to price in (10000002, The Forge)
+              --price buy|sell|max-buy|min-sell   price calculator (buy)
+              --reprocessing Q       reprocessing quota (0.5)
+              --cost-per-m3 N        hauling cost (450)
+              --top N                results per list (all)
+              --parallel N           lists evaluated at once (available processors)
+              --orders DUMP          ingest a region order dump first instead of fetching every type
+            """;
+
+    private final Gson gson = new Gson();
+    private final boolean json;
+    private final Writer out;
+    private final SdeSnapshot sde;
+    private final YieldMatrix yields;
+    private final PriceVector prices;
+    private final float reprocessing;
+    private final float costPerM3;
+    private final int maxResults;
+    private final AtomicInteger unreadableLines = new AtomicInteger();
+
+    private BatchCli(boolean json, Writer out, SdeSnapshot sde, PriceVector prices, float reprocessing, float costPerM3, int maxResults) {
+        this.json = json;
+        this.out = out;
+        this.sde = sde;
+        this.yields = sde.yields();
+        this.prices = prices;
+        this.reprocessing = reprocessing;
+        this.costPerM3 = costPerM3;
+        this.maxResults = maxResults;
+    }
+
+    static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 == args.length) {
+                    System.err.print(USAGE);
+                    System.exit(2);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        int region = Integer.parseInt(options.getOrDefault("region", "10000002"));
+        SimpleSolver.PriceCalculator priceCalculator = SimpleSolver.PriceCalculator.named(options.getOrDefault("price", "buy"));
+        if (priceCalculator == null) throw new IllegalArgumentException("Unknown price calculator: " + options.get("price"));
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        boolean ok;
+        Cache.initialize();
+        try {
+            if (options.containsKey("orders")) {
+                Cache.ingestOrderDump(Path.of(options.get("orders")), region, Duration.ofHours(6));
+            }
+            SdeSnapshot sde = Cache.sde();
+            AtomicInteger failedFetches = new AtomicInteger();
+            PriceVector prices = prices(sde, region, priceCalculator, failedFetches);
+
+            Writer out = options.containsKey("out")
+                    ? Files.newBufferedWriter(Path.of(options.get("out")))
+                    : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            try {
+                BatchCli batch = new BatchCli("json".equals(options.getOrDefault("format", "csv")), out, sde, prices,
+                        Float.parseFloat(options.getOrDefault("reprocessing", "0.5")),
+                        Float.parseFloat(options.getOrDefault("cost-per-m3", "450")),
+                        Integer.parseInt(options.getOrDefault("top", String.valueOf(Integer.MAX_VALUE))));
+                ok = batch.run(inputs, parallel) && failedFetches.get() == 0;
+            } finally {
+                out.flush();
+                if (options.containsKey("out")) out.close();
+            }
+        } finally {
+            Cache.save();
+        }
+        if (!ok) System.exit(1);
+    }
+
+    /**
+     * Fetches the stats of every type any list could need, then resolves them all at once. Types whose fetch failed
+     * are reported and counted, and priced as if they had no orders.
+     */
+    private static PriceVector prices(SdeSnapshot sde, int region, SimpleSolver.PriceCalculator priceCalculator, AtomicInteger failedFetches) throws IOException {
+        YieldMatrix yields = sde.yields();
+        List<Integer> typeIds = new ArrayList<>(yields.types.size());
+        for (int t = 0; t < yields.types.size(); t++) {
+            typeIds.add(yields.types.typeId(t));
+        }
+        Cache.prefetchMarketValues(typeIds, region, new SimpleSolver.ProgressListener() {
+            @Override
+            public void progress(int done, int total) {
+            }
+
+            @Override
+            public void failed(int typeId, int regionId, IOException e) {
+                System.err.println("Could not fetch the market stats of " + sde.name(typeId) + ": " + e.getMessage());
+                failedFetches.incrementAndGet();
+            }
+        });
+        if (failedFetches.get() > 0) System.err.println(failedFetches.get() + " market fetches failed");
+        return PriceVector.snapshot(sde, region, priceCalculator);
+    }
+
+    /**
+     * @return true if every list was evaluated and every line of them read
+     */
+    private boolean run(List<String> inputs, int parallel) throws Exception {
+        if (!json) {
+            write("list,typeId,name,region,profit,margin,volume\n");
+        }
+        Semaphore permits = new Semaphore(parallel);
+        List<Future<?>> lists = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String input : inputs) {
+                if (input.equals("-")) {
+                    readStream(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                            (name, text) -> lists.add(submit(executor, permits, name, () -> text)));
+                } else if (Files.isDirectory(Path.of(input))) {
+                    try (Stream<Path> files = Files.list(Path.of(input))) {
+                        for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                            lists.add(submit(executor, permits, file.getFileName().toString(), () -> Files.readString(file)));
+                        }
+                    }
+                } else {
+                    Path file = Path.of(input);
+                    lists.add(submit(executor, permits, file.getFileName().toString(), () -> Files.readString(file)));
+                }
+            }
+        }
+        int failed = 0;
+        for (Future<?> list : lists) {
+            try {
+                list.get();
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        System.err.println("Evaluated " + (lists.size() - failed) + " lists, " + failed + " failed, "
+                + unreadableLines.get() + " lines unreadable");
+        return failed == 0 && unreadableLines.get() == 0;
+    }
+
+    private Future<?> submit(ExecutorService executor, Semaphore permits, String name, Callable<String> text) throws InterruptedException {
+        // bounds the lists read and evaluated at once, and how far reading runs ahead
+        permits.acquire();
+        return executor.submit(() -> {
+            try {
+                evaluate(name, text.call());
+                return null;
+            } catch (Exception e) {
+                System.err.println(name + ": " + e);
+                throw e;
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private interface ListConsumer {
+        void accept(String name, String text) throws Exception;
+    }
+
+    private static void readStream(BufferedReader in, ListConsumer consumer) throws Exception {
+        String name = "stdin";
+        StringBuilder text = new StringBuilder();
+        int lists = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("##")) {
+                if (!text.isEmpty() || lists > 0) consumer.accept(name, text.toString());
+                name = line.substring(2).strip();
+                text.setLength(0);
+                lists++;
+            } else {
+                text.append(line).append('\n');
+            }
+        }
+        if (!text.isEmpty() || lists > 0) consumer.accept(name, text.toString());
+    }
+
+    private void evaluate(String name, String text) throws IOException {
+        InventoryParser.Result parsed = InventoryParser.parse(text, sde.nameIndex());
+        for (String error : parsed.errors()) {
+            System.err.println(name + ": " + error);
+        }
+        unreadableLines.addAndGet(parsed.errors().size());
+        // no resources would mean every material is wanted
+        if (parsed.typeIds().length == 0) throw new IOException("No items in the list");
+        ReprocessEvaluator evaluator = new ReprocessEvaluator(yields, SimpleSolver.wanted(yields, parsed.typeIdList()), prices, reprocessing, costPerM3);
+        evaluator.evaluateAll(ForkJoinPool.commonPool(), (done, total) -> {
+        });
+        TopK top = evaluator.top(ForkJoinPool.commonPool(), maxResults).sorted();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = top.size() - 1; i >= 0; i--) {
+            ReprocessResult result = evaluator.result(evaluator.row(top.typeId(i)));
+            String itemName = sde.name(result.typeId());
+            if (json) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("list", name);
+                row.put("typeId", result.typeId());
+                row.put("name", itemName);
+                row.put("region", result.region());
+                row.put("profit", result.profit());
+                row.put("margin", result.margin());
+                row.put("volume", result.volume());
+                sb.append(gson.toJson(row)).append('\n');
+            } else {
+                sb.append(csv(name)).append(',').append(result.typeId()).append(',').append(csv(itemName)).append(',')
+                        .append(result.region()).append(',').append(result.profit()).append(',')
+                        .append(result.margin()).append(',').append(result.volume()).append('\n');
+            }
+        }
+        write(sb);
+    }
+
+    private static String csv(String field) {
+        if (field == null) return "";
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) return field;
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Writes one list's results in one piece, so lists never interleave.
+     */
+    private synchronized void write(CharSequence text) throws IOException {
+        out.append(text);
+        out.flush();
+    }
+}
@@ -1,66 +1,394 @@
-import com.google.gson.Gson;
 import jxl.Cell;
 import jxl.Sheet;
 import jxl.Workbook;
 import jxl.read.biff.BiffException;
-import net.jcip.annotations.GuardedBy;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntToDoubleFunction;
 
 public class Cache {
-    private static Gson gson = new Gson();
     private static Path cacheDir = Path.of("cache");
     private static String INV_TYPES = "https://www.fuzzwork.co.uk/dump/latest/invTypes.xls";
     private static String INV_TYPES_MATERIALS = "https://www.fuzzwork.co.uk/dump/latest/invTypeMaterials.csv";
     private static String EVE_TYCOON = "https://evetycoon.com/api";
 
 
-    private static Map<String, CachedResponse<APIResponse>> buySellApiCache;
+    // published once loaded, so a non-null marketStats means both are ready
+    private static volatile MarketTable marketStats;
+    private static volatile MarketStore marketStore;
+    private static volatile MarketDataSource marketDataSource;
+    private static final Map<Long, CompletableFuture<Integer>> inFlight = new ConcurrentHashMap<>();
+    // until when, in epoch millis, a type the market had no stats for or whose fetch failed is not asked for again
+    private static final Map<Long, Long> negative = new ConcurrentHashMap<>();
+    private static final Duration NOT_FOUND_TTL = Duration.ofMinutes(10);
+    private static final Duration FAILURE_TTL = Duration.ofMinutes(1);
+    // more would only queue in the limiter of the live source
+    private static volatile int fetchConcurrency = HttpMarketDataSource.MAX_CONCURRENCY;
+    private static volatile int maxMarketEntries = 250_000;
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(5);
+    private static ScheduledExecutorService sweeper;
+    private static volatile Duration maxStaleness = Duration.ofDays(1);
+    private static final Duration REFRESH_LEAD = Duration.ofMinutes(1);
+    private static RefreshScheduler refreshScheduler;
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder staleHits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder negativeHits = new LongAdder();
+    private static final LongAdder expirations = new LongAdder();
 
     private static String[] HARD_CACHE = new String[]{INV_TYPES, INV_TYPES_MATERIALS};
 
-    @GuardedBy("this")
-    private static Map<Integer, String> idToName;
-    @GuardedBy("this")
-    private static Map<String, Integer> nameToId;
-    @GuardedBy("this")
-    private static HashMap<Integer, Double> idToVolume;
-    @GuardedBy("this")
-    private static HashMap<Integer, Double> idToRequiredForReprocess;
-    @GuardedBy("this")
-    private static Map<Integer, List<Pair<Integer, Double>>> idToReprocessed;
+    // readers take the current snapshot without locking; loads and reloads replace it whole
+    private static final AtomicReference<SdeSnapshot> sde = new AtomicReference<>();
+    private static final Object sdeLock = new Object();
+    private static ScheduledExecutorService sdeReloader;
+    private static ScheduledFuture<?> sdeReload;
+
+    // startup stages, see initializeAsync
+    private static final Executor STARTUP = task -> Thread.ofVirtual().name("cache-startup").start(task);
+    private static CompletableFuture<Void> initializing;
+    // the SDE stages through writing sde.bin
+    private static CompletableFuture<Void> sdeWritten;
+    private static volatile CompletableFuture<SdeSnapshot> sdeLoading;
+    private static volatile CompletableFuture<Void> marketLoading;
+
+    /**
+     * Points the cache at another directory; call before {@link #initialize()}.
+     */
+    public static void setCacheDir(Path dir) {
+        cacheDir = dir;
+    }
+
+    /**
+     * Replaces where market stats are fetched from, closing the previous source. Without a call, the source is
+     * picked from the system properties on first use; see {@link MarketDataSource#fromSystemProperties}.
+     */
+    public static synchronized void setMarketDataSource(MarketDataSource source) throws IOException {
+        MarketDataSource previous = marketDataSource;
+        marketDataSource = source;
+        if (previous != null) previous.close();
+    }
 
+    private static MarketDataSource marketDataSource() throws IOException {
+        MarketDataSource source = marketDataSource;
+        if (source != null) return source;
+        synchronized (Cache.class) {
+            if (marketDataSource == null) {
+                marketDataSource = MarketDataSource.fromSystemProperties(EVE_TYCOON, cacheDir.resolve("market-snapshot.bin"));
+            }
+            return marketDataSource;
+        }
+    }
+
+    /**
+     * Forgets the loaded SDE and market stats, so the next {@link #initialize()} loads them again.
+     */
+    public static synchronized void unload() throws IOException {
+        initializing = null;
+        sdeWritten = null;
+        sdeLoading = null;
+        marketLoading = null;
+        sde.set(null);
+        if (marketStore != null) {
+            marketStore.close();
+            marketStore = null;
+        }
+        marketStats = null;
+        negative.clear();
+    }
 
+    /**
+     * Loads everything and returns once all of it is ready, see {@link #initializeAsync()}.
+     */
     public static void initialize() throws Exception {
-        populate();
-        loadCacheEntries();
+        await(initializeAsync());
     }
 
-    @SuppressWarnings("unchecked")
-    private static void loadCacheEntries() {
-        File file = new File("cache/buySellApiCache.bin");
+    /**
+     * Starts loading the SDE and the market cache, each on its own virtual threads:
+     * <pre>
+     * download invTypes.xls ---------.
+     * download invTypeMaterials.csv --+-- load sde.bin, or parse both dumps at once -- publish -- write sde.bin
+     * load the market cache ----------------------------------------------------------------'
+     * </pre>
+     * Nothing waits for the whole graph: {@link #sde()} and the lookups built on it wait only for the SDE, market
+     * lookups only for the market cache. Calling again while loading, or once loaded, returns the same future; after
+     * a failure only the SDE or market half that failed starts over, so a loaded market cache is not opened twice.
+     *
+     * @return completes once everything is loaded and the SDE snapshot is written
+     */
+    public static synchronized CompletableFuture<Void> initializeAsync() {
+        if (initializing != null && !initializing.isCompletedExceptionally()) return initializing;
+        try {
+            Files.createDirectories(cacheDir);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-        if (!file.exists()) {
-            buySellApiCache = new ConcurrentHashMap<>();  // empty cache on first run
+        if (sdeWritten == null || sdeWritten.isCompletedExceptionally()) loadSde();
+        if (marketLoading == null || marketLoading.isCompletedExceptionally()) {
+            marketLoading = async(() -> {
+                loadCacheEntries();
+                return null;
+            });
         }
+        initializing = CompletableFuture.allOf(sdeWritten, marketLoading);
+        return initializing;
+    }
 
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+    private static void loadSde() {
+        List<CompletableFuture<Void>> downloads = new ArrayList<>();
+        for (String url : HARD_CACHE) {
+            downloads.add(async(() -> {
+                populate(url);
+                return null;
+            }));
+        }
+        CompletableFuture<SdeFile.Contents> loaded = CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new))
+                .thenCompose(_ -> async(Cache::loadSdeFile));
+        CompletableFuture<SdeSnapshot> compiled = loaded.thenCompose(contents -> contents != null
+                ? CompletableFuture.completedFuture(SdeSnapshot.of(contents))
+                : compileSde());
+        CompletableFuture<SdeSnapshot> published = compiled.thenApply(snapshot -> {
+            sde.set(snapshot);
+            // for the first pasted list
+            STARTUP.execute(snapshot::nameIndex);
+            return snapshot;
+        });
+        CompletableFuture<Void> written = published.thenCompose(snapshot -> loaded.join() != null
+                ? CompletableFuture.completedFuture(null)
+                : async(() -> {
+                    writeSdeFile(snapshot);
+                    return null;
+                }));
+
+        sdeLoading = published;
+        sdeWritten = written;
+    }
+
+    /**
+     * @return completes once the SDE is loaded; null if {@link #initializeAsync()} was not called
+     */
+    public static CompletableFuture<SdeSnapshot> sdeLoaded() {
+        return sdeLoading;
+    }
+
+    /**
+     * @return completes once the market cache is loaded; null if {@link #initializeAsync()} was not called
+     */
+    public static CompletableFuture<Void> marketLoaded() {
+        return marketLoading;
+    }
+
+    private interface Stage<T> {
+        T run() throws Exception;
+    }
+
+    private static <T> CompletableFuture<T> async(Stage<T> stage) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        STARTUP.execute(() -> {
+            try {
+                future.complete(stage.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> stage) throws IOException, BiffException {
+        try {
+            return stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading");
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case IOException io -> throw io;
+                case BiffException biff -> throw biff;
+                case RuntimeException runtime -> throw runtime;
+                case Error error -> throw error;
+                default -> throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Waits for the market cache if {@link #initializeAsync()} is still loading it.
+     *
+     * @throws CompletionException if loading it failed
+     */
+    private static void awaitMarket() {
+        if (marketStats != null) return;
+        CompletableFuture<Void> loading = marketLoading;
+        if (loading == null) throw new IllegalStateException("The market cache is not loaded");
+        loading.join();
+    }
+
+    private static void loadCacheEntries() throws IOException {
+        Path log = cacheDir.resolve("market.log");
+        boolean firstRun = !Files.isRegularFile(log);
+        MarketStore store = MarketStore.open(log);
+        MarketTable stats;
+        try {
+            stats = new MarketTable(Math.min(store.size(), maxMarketEntries), store::remove);
+            stats.setMaxEntries(maxMarketEntries);
+            store.forEach((regionId, typeId, expiresAt, response) ->
+                    stats.put(regionId, typeId, expiresAt.getEpochSecond(), response));
+            if (firstRun) {
+                importLegacyCacheEntries(store, stats);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a retry opens the log again
+            store.close();
+            throw e;
+        }
+        marketStore = store;
+        marketStats = stats;
+        sweepExpired();
+        Debug.print("Loaded " + stats.size() + " market entries");
+
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("market-cache-sweeper").factory());
+            sweeper.scheduleAtFixedRate(Cache::sweepExpired, SWEEP_INTERVAL.toSeconds(), SWEEP_INTERVAL.toSeconds(), TimeUnit.SECONDS);
+        }
+        if (refreshScheduler == null) {
+            refreshScheduler = new RefreshScheduler(Cache::refreshInBackground, fetchConcurrency);
+        }
+    }
+
+    /**
+     * Removes entries too stale to be served any more and lapsed negative entries, and compacts the log once it is
+     * mostly garbage so a long-running process does not grow it until {@link #save()}.
+     */
+    private static void sweepExpired() {
+        MarketTable stats = marketStats;
+        MarketStore store = marketStore;
+        if (stats == null || store == null) return; // unloaded
+        long nowMillis = System.currentTimeMillis();
+        // lookups only prune the keys they ask for again
+        negative.values().removeIf(until -> until <= nowMillis);
+        int removed = stats.removeExpired(nowMillis / 1000 - maxStaleness.toSeconds());
+        expirations.add(removed);
+        if (removed > 0) Debug.print("Swept " + removed + " expired market entries");
+        try {
+            if (store.needsCompaction()) store.compact();
+        } catch (IOException e) {
+            Debug.print("Failed to compact the market store: " + e);
+        }
+    }
+
+    /**
+     * Bounds the number of market entries kept in memory and on disk; the least recently used are evicted first.
+     */
+    public static void setMaxMarketEntries(int maxEntries) {
+        maxMarketEntries = maxEntries;
+        if (marketStats != null) marketStats.setMaxEntries(maxEntries);
+    }
+
+    /**
+     * How long past its expiry an entry is still served from memory while it is refreshed in the background.
+     */
+    public static void setMaxStaleness(Duration staleness) {
+        if (staleness.isNegative()) throw new IllegalArgumentException("staleness must not be negative: " + staleness);
+        maxStaleness = staleness;
+    }
+
+    /**
+     * @param hits lookups served from memory, including {@code staleHits}
+     * @param staleHits lookups served from memory after expiry, while a refresh was queued
+     * @param negativeHits lookups answered without stats because the type had none or its fetch failed recently
+     */
+    public record MarketCacheStats(long hits, long staleHits, long misses, long negativeHits, long expirations, long evictions, int size, int maxEntries) {
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    /**
+     * Does not wait for the market cache to load, so it can be polled from the event dispatch thread; until it has
+     * loaded the cache counts as empty.
+     */
+    public static MarketCacheStats marketCacheStats() {
+        MarketTable stats = marketStats;
+        if (stats == null) {
+            return new MarketCacheStats(hits.sum(), staleHits.sum(), misses.sum(), negativeHits.sum(), expirations.sum(), 0, 0, maxMarketEntries);
+        }
+        return new MarketCacheStats(hits.sum(), staleHits.sum(), misses.sum(), negativeHits.sum(), expirations.sum(), stats.evictions(), stats.size(), stats.maxEntries());
+    }
 
-            buySellApiCache = (Map<String, CachedResponse<APIResponse>>) in.readObject();
+    /**
+     * Replaces the stats of every type in a region order dump at once, see {@link OrderDumpIngest}. The stats
+     * expire {@code ttl} after the ingest, however old the dump is: dating them from the dump's modification time
+     * would make an old dump ingest as already expired and refresh every type over HTTP, which the ingest is meant to
+     * avoid. Types without orders in the dump are left as they are.
+     *
+     * @param defaultRegionId region of the orders if the dump does not say
+     * @return how many types were updated
+     */
+    public static int ingestOrderDump(Path dump, int defaultRegionId, Duration ttl) throws IOException {
+        awaitMarket();
+        Instant expiresAt = Instant.now().plus(ttl);
+        int[] types = {0};
+        OrderDumpIngest.ingest(dump, defaultRegionId, expiresAt, (regionId, typeId, expires, response) -> {
+            try {
+                marketStore.append(regionId, typeId, expires, response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            marketStats.put(regionId, typeId, expires.getEpochSecond(), response);
+            types[0]++;
+        });
+        marketStore.force();
+        Debug.print("Ingested the stats of " + types[0] + " types from " + dump);
+        return types[0];
+    }
+
+    /**
+     * Forgets all market stats, in memory and on disk. The SDE dumps are kept.
+     */
+    public static void clearMarketCache() throws IOException {
+        awaitMarket();
+        negative.clear();
+        marketStats.clear();
+        marketStore.clear();
+    }
 
+    /**
+     * One-time migration of the Java-serialized cache used before {@link MarketStore}.
+     */
+    @SuppressWarnings("unchecked")
+    private static void importLegacyCacheEntries(MarketStore store, MarketTable stats) throws IOException {
+        File file = cacheDir.resolve("buySellApiCache.bin").toFile();
+        if (!file.exists()) return;
+
+        Map<String, CachedResponse<APIResponse>> legacy;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            legacy = (Map<String, CachedResponse<APIResponse>>) in.readObject();
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Failed to load api cache");
-            buySellApiCache = new ConcurrentHashMap<>();   // fallback on error
+            return;
+        }
+        String prefix = EVE_TYCOON + "/v1/market/stats/";
+        for (Map.Entry<String, CachedResponse<APIResponse>> entry : legacy.entrySet()) {
+            CachedResponse<APIResponse> c = entry.getValue();
+            if (c.body == null || c.expiresAt == null || !entry.getKey().startsWith(prefix)) continue;
+            String[] regionAndType = entry.getKey().substring(prefix.length()).split("/");
+            int regionId = Integer.parseInt(regionAndType[0]);
+            int typeId = Integer.parseInt(regionAndType[1]);
+            store.append(regionId, typeId, c.expiresAt, c.body);
+            stats.put(regionId, typeId, c.expiresAt.getEpochSecond(), c.body);
         }
     }
 
@@ -69,148 +397,457 @@ public class Cache {
     }
 
     private static void storeCacheEntries() throws IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream("cache/buySellApiCache.bin"));
-        out.writeObject(buySellApiCache);
-        out.close();
+        awaitMarket();
+        if (marketStore.needsCompaction()) {
+            marketStore.compact();
+        } else {
+            marketStore.force();
+        }
+    }
+
+    /**
+     * The SDE currently loaded. A reload may replace it at any time, so take it once and keep using it for
+     * everything that has to agree, like the yields and volumes of one solve.
+     */
+    public static SdeSnapshot sde() {
+        SdeSnapshot snapshot = sde.get();
+        if (snapshot != null) return snapshot;
+        // still starting up: wait for the SDE stage only
+        CompletableFuture<SdeSnapshot> loading = sdeLoading;
+        if (loading == null) throw new IllegalStateException("The SDE is not loaded");
+        return loading.join();
     }
 
-    @GuardedBy("this")
     public static String getItemName(int id) {
-        return idToName.get(id);
+        return sde().name(id);
     }
 
-    @GuardedBy("this")
     public static Integer getItemId(String name) {
-        return nameToId.get(name);
+        return sde().typeId(name);
     }
 
-    private static void populate() throws IOException, BiffException {
-        if (!Files.isDirectory(cacheDir)) {
-            Files.createDirectory(cacheDir);
-        }
-        for (String url : HARD_CACHE) {
-            populate(url);
-        }
+    /**
+     * Case-insensitive index over all item names, built on first use.
+     */
+    public static NameIndex nameIndex() {
+        return sde().nameIndex();
+    }
 
-        parseInvTypes();
+    public static YieldMatrix getYieldMatrix() {
+        return sde().yields();
     }
 
-    public synchronized static Map<Integer, List<Pair<Integer, Double>>> getInvTypeMaterials() throws IOException {
-        if (idToReprocessed != null) return idToReprocessed;
-        Debug.print("Loading invTypeMaterials");
-        idToReprocessed = new HashMap<>();
+    /**
+     * @param portionSize units of each item reprocessed at once; the yields are per unit
+     */
+    static YieldMatrix parseInvTypeMaterials(Path csv, IntToDoubleFunction portionSize) throws IOException {
+        YieldMatrix.Builder builder = new YieldMatrix.Builder();
         boolean firstLine = true;
-        try (BufferedReader br = new BufferedReader(new FileReader(cacheDir.resolve("invTypeMaterials.csv").toFile()))) {
+        try (BufferedReader br = new BufferedReader(new FileReader(csv.toFile()))) {
             String line;
             while ((line = br.readLine()) != null) {
                 if (firstLine) {
                     firstLine = false;
                     continue;
                 }
-                Integer[] values = Arrays.stream(line.split(",")).map(Integer::parseInt).toArray(Integer[]::new);
+                int firstComma = line.indexOf(',');
+                int secondComma = line.indexOf(',', firstComma + 1);
+                int itemId = Integer.parseInt(line, 0, firstComma, 10);
+                int materialId = Integer.parseInt(line, firstComma + 1, secondComma, 10);
+                int quantity = Integer.parseInt(line, secondComma + 1, line.length(), 10);
 
-                Debug.print("items per conv" + values[2]);
-                Debug.print("req for conv: " + idToRequiredForReprocess.get(values[1]));
-                idToReprocessed.computeIfAbsent(values[0], k -> new ArrayList<>()).add(new Pair<>(values[1], values[2] / idToRequiredForReprocess.get(values[0])));
+                builder.add(itemId, materialId, quantity / portionSize.applyAsDouble(itemId));
+            }
+        }
+        return builder.build();
+    }
 
+    /**
+     * Downloads the SDE dumps that changed since they were cached and swaps in a snapshot built from them. Solves
+     * already running finish on the snapshot they took; if a download or the parse fails, the dumps and snapshot in
+     * use are left as they are.
+     *
+     * @return the snapshot now in use, the same one if neither dump changed
+     */
+    public static SdeSnapshot reloadSde() throws IOException, BiffException {
+        synchronized (sdeLock) {
+            // both dumps are downloaded before either is replaced, so a failure never leaves a mismatched pair
+            boolean[] changed = new boolean[HARD_CACHE.length];
+            boolean anyChanged = false;
+            try {
+                for (int i = 0; i < HARD_CACHE.length; i++) {
+                    changed[i] = Http.download(HARD_CACHE[i], dumpFile(HARD_CACHE[i]), staging(dumpFile(HARD_CACHE[i])));
+                    anyChanged |= changed[i];
+                }
+                for (int i = 0; i < HARD_CACHE.length; i++) {
+                    if (changed[i]) {
+                        Files.move(staging(dumpFile(HARD_CACHE[i])), dumpFile(HARD_CACHE[i]), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            } finally {
+                for (String url : HARD_CACHE) Files.deleteIfExists(staging(dumpFile(url)));
             }
+            SdeSnapshot current = sde.get();
+            if (current != null && !anyChanged) {
+                Debug.print("The SDE dumps are unchanged");
+                return current;
+            }
+            SdeFile.Contents contents = loadSdeFile();
+            SdeSnapshot reloaded = contents != null ? SdeSnapshot.of(contents) : await(compileSde());
+            if (contents == null) writeSdeFile(reloaded);
+            sde.set(reloaded);
+            Debug.print("Reloaded the SDE, " + reloaded.size() + " types");
+            return reloaded;
+        }
+    }
+
+    /**
+     * Calls {@link #reloadSde()} every {@code interval} in the background; null stops reloading.
+     */
+    public static void setSdeReloadInterval(Duration interval) {
+        synchronized (sdeLock) {
+            if (sdeReload != null) sdeReload.cancel(false);
+            sdeReload = null;
+            if (interval == null) return;
+            if (sdeReloader == null) {
+                sdeReloader = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("sde-reloader").factory());
+            }
+            sdeReload = sdeReloader.scheduleWithFixedDelay(() -> {
+                try {
+                    if (sde.get() != null) reloadSde(); // not after unload
+                } catch (Exception e) {
+                    Debug.print("SDE reload failed, keeping the loaded SDE: " + e);
+                }
+            }, interval.toSeconds(), interval.toSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return the binary snapshot of the SDE, or null if it is missing, older than the dumps or unreadable
+     */
+    private static SdeFile.Contents loadSdeFile() {
+        Path snapshot = cacheDir.resolve("sde.bin");
+        SdeFile.Contents contents;
+        try {
+            contents = SdeFile.load(snapshot, cacheDir.resolve("invTypes.xls"), cacheDir.resolve("invTypeMaterials.csv"));
+        } catch (IOException e) {
+            Debug.print("Cannot read " + snapshot + ": " + e);
+            contents = null;
+        }
+        Debug.print((contents != null ? "Loading " : "Compiling ") + snapshot);
+        return contents;
+    }
+
+    /**
+     * Parses both dumps at once. The yields are read per portion and divided by the portion sizes from invTypes
+     * once both are done.
+     */
+    private static CompletableFuture<SdeSnapshot> compileSde() {
+        record InvTypes(LinkedHashMap<Integer, String> idToName, Map<Integer, Double> idToVolume, Map<Integer, Double> idToPortionSize) {
         }
-        Debug.print("Loading invTypeMaterials - complete");
-        return idToReprocessed;
+        CompletableFuture<InvTypes> invTypes = async(() -> {
+            InvTypes types = new InvTypes(new LinkedHashMap<>(), new HashMap<>(), new HashMap<>());
+            parseInvTypesXls(cacheDir.resolve("invTypes.xls"), types.idToName(), types.idToVolume(), types.idToPortionSize());
+            return types;
+        });
+        CompletableFuture<YieldMatrix> perPortion = async(() -> parseInvTypeMaterials(cacheDir.resolve("invTypeMaterials.csv"), _ -> 1));
+        return invTypes.thenCombine(perPortion, (types, yields) -> SdeSnapshot.of(types.idToName(), types.idToVolume(),
+                types.idToPortionSize(), yields.perUnit(types.idToPortionSize()::get)));
     }
 
-    private static synchronized void parseInvTypes() throws IOException, BiffException {
-        if (idToName != null) return;
-        Workbook invTypes = Workbook.getWorkbook(cacheDir.resolve("invTypes.xls").toFile());
+    /**
+     * Writes the binary snapshot for the next start; writers are serialized as they share a temporary file.
+     */
+    private static void writeSdeFile(SdeSnapshot snapshot) throws IOException {
+        synchronized (sdeLock) {
+            SdeFile.write(cacheDir.resolve("sde.bin"), cacheDir.resolve("invTypes.xls"), cacheDir.resolve("invTypeMaterials.csv"), snapshot.contents());
+        }
+    }
 
-        idToName = new HashMap<>();
-        nameToId = new HashMap<>();
-        idToVolume = new HashMap<>();
-        idToRequiredForReprocess = new HashMap<>();
+    private static void parseInvTypesXls(Path file, Map<Integer, String> idToName, Map<Integer, Double> idToVolume,
+                                         Map<Integer, Double> idToPortionSize) throws IOException, BiffException {
+        Workbook invTypes = Workbook.getWorkbook(file.toFile());
         Sheet sheet = invTypes.getSheet(0);
         int rows = sheet.getRows();
 
         for (int i = 1; i < rows; i++) {
             Cell[] row = sheet.getRow(i);
             int itemId = Integer.parseInt(row[0].getContents());
-            String name = row[2].getContents();
-            idToName.put(itemId, name);
-            nameToId.put(name, itemId);
+            idToName.put(itemId, row[2].getContents());
             idToVolume.put(itemId, Double.parseDouble(row[5].getContents()));
-            idToRequiredForReprocess.put(itemId, Double.parseDouble(row[7].getContents()));
+            idToPortionSize.put(itemId, Double.parseDouble(row[7].getContents()));
         }
+        invTypes.close();
     }
 
     public static double idToVolume(int itemId) {
-        return idToVolume.get(itemId);
+        return sde().volume(itemId);
     }
 
     public static APIResponse marketValue(int typeId) throws IOException {
         return marketValue(typeId, 10000002); // The forge
     }
 
+    /**
+     * Sets how many market requests {@link #prefetchMarketValues} keeps in flight at once. Defaults to the most the
+     * live source's limiter ever lets through, {@link HttpMarketDataSource#MAX_CONCURRENCY}.
+     */
+    public static void setFetchConcurrency(int concurrency) {
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        fetchConcurrency = concurrency;
+    }
+
+    /**
+     * Fetches every type that is not already cached for the region, using one virtual thread per type and at
+     * most {@link #setFetchConcurrency fetchConcurrency} requests at a time. Afterwards {@link #marketValue}
+     * is served from memory for all of them.
+     *
+     * @throws IOException if any fetch failed, after all of them are done
+     */
+    public static void prefetchMarketValues(Collection<Integer> typeIds, int regionId) throws IOException {
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        prefetchMarketValues(typeIds, regionId, new SimpleSolver.ProgressListener() {
+            @Override
+            public void progress(int done, int total) {
+            }
+
+            @Override
+            public void failed(int typeId, int regionId, IOException e) {
+                failures.add(e);
+            }
+        });
+        if (failures.isEmpty()) return;
+        IOException e = new IOException(failures.size() + " market fetches failed in region " + regionId, failures.getFirst());
+        failures.stream().skip(1).forEach(e::addSuppressed);
+        throw e;
+    }
+
+    /**
+     * Like {@link #prefetchMarketValues(Collection, int)}, reporting each completed fetch to the listener. A failed
+     * fetch is reported to the listener instead of thrown, as the rest of a bulk fetch is still useful; the type is
+     * negatively cached and retried later. Once the listener is cancelled no new fetches start; interrupting the
+     * caller also aborts the ones in flight.
+     *
+     * @throws CancellationException if the listener was cancelled
+     */
+    public static void prefetchMarketValues(Collection<Integer> typeIds, int regionId, SimpleSolver.ProgressListener listener) throws IOException {
+        awaitMarket();
+        Semaphore permits = new Semaphore(fetchConcurrency);
+        List<Future<Integer>> futures = new ArrayList<>();
+        AtomicInteger done = new AtomicInteger();
+        long now = System.currentTimeMillis() / 1000;
+        List<Integer> missing = new ArrayList<>();
+        for (int typeId : new LinkedHashSet<>(typeIds)) {
+            if (!isServable(marketStats.find(regionId, typeId), now) && !isNegative(MarketTable.key(regionId, typeId), now * 1000)) {
+                missing.add(typeId);
+            }
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int typeId : missing) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        if (listener.cancelled()) throw new CancellationException();
+                        return fetch(typeId, regionId);
+                    } finally {
+                        permits.release();
+                        listener.fetched(done.incrementAndGet(), missing.size());
+                    }
+                }));
+            }
+        }
+        if (listener.cancelled()) throw new CancellationException();
+        Debug.print("Prefetched " + futures.size() + " market values for region " + regionId);
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while prefetching market values");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedIOException io) throw io;
+                if (e.getCause() instanceof IOException io) {
+                    failed++;
+                    listener.failed(missing.get(i), regionId, io);
+                    continue;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        if (failed > 0) Debug.print(failed + " of " + futures.size() + " market fetches failed in region " + regionId);
+    }
+
     public static APIResponse marketValue(int typeId, int regionId) throws IOException {
-        String urlString = EVE_TYCOON + "/v1/market/stats/%d/%d".formatted(regionId, typeId);
+        if (marketRow(typeId, regionId) < 0) return null;
+        return marketStats.get(regionId, typeId);
+    }
 
-        CachedResponse<APIResponse> c = buySellApiCache.get(urlString);
-        if (c != null && c.expiresAt != null && c.expiresAt.isAfter(Instant.now())) {
+    /**
+     * The price of a type by the calculator, without allocating on a cache hit and fetching the stats on a miss.
+     *
+     * @return the price, or 0 if the market has no stats for the type
+     */
+    public static double price(int typeId, int regionId, SimpleSolver.PriceCalculator priceCalculator) throws IOException {
+        if (marketRow(typeId, regionId) < 0) return 0;
+        return marketStats.read(regionId, typeId, priceCalculator::calculate, 0);
+    }
+
+    /**
+     * Makes sure the stats for a type are in memory, fetching them on a miss.
+     *
+     * @return the row in the table, or -1 if the market has no stats for the type; only a hint, as a concurrent write
+     * may reuse the row for another key
+     */
+    private static int marketRow(int typeId, int regionId) throws IOException {
+        awaitMarket();
+        long nowMillis = System.currentTimeMillis();
+        int row = marketStats.find(regionId, typeId);
+        if (isServable(row, nowMillis / 1000)) {
+            hits.increment();
+            marketStats.touch(row, nowMillis);
+            if (marketStats.expiresAt(row) <= nowMillis / 1000) {
+                staleHits.increment();
+                refreshScheduler.refreshNow(regionId, typeId);
+            }
             Debug.print("API Cache Hit");
-            return c.body;
+            return row;
         }
+        if (isNegative(MarketTable.key(regionId, typeId), nowMillis)) {
+            negativeHits.increment();
+            return -1;
+        }
+        misses.increment();
         Debug.print("API Cache miss");
-        APIResponse apiResponse = null;
-        Instant expiresAt = null;
-        URL url = new URL(urlString);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
+        return fetch(typeId, regionId);
+    }
 
-        int status = conn.getResponseCode();
-        if (status == HttpURLConnection.HTTP_OK) {
+    private static boolean isNegative(long key, long nowMillis) {
+        Long until = negative.get(key);
+        if (until == null) return false;
+        if (until > nowMillis) return true;
+        negative.remove(key, until);
+        return false;
+    }
 
-            // Read Expires header
-            String expiresHeader = conn.getHeaderField("Expires");
-            if (expiresHeader != null) {
-                expiresAt = Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(expiresHeader));
-                expiresAt = expiresAt.plus(1, ChronoUnit.DAYS);
-                Debug.print("Expires at: " + expiresAt);
-            } else {
-                expiresAt = Instant.now().plus(1, ChronoUnit.DAYS);
-            }
+    /**
+     * @return true if the row exists and is fresh, or expired less than {@link #setMaxStaleness maxStaleness} ago
+     */
+    private static boolean isServable(int row, long nowEpochSecond) {
+        return row >= 0 && marketStats.expiresAt(row) + maxStaleness.toSeconds() > nowEpochSecond;
+    }
+
+    /**
+     * Refreshes an entry if it was read since the refresh was scheduled; entries nobody reads are left to expire.
+     */
+    private static void refreshInBackground(int regionId, int typeId, long scheduledAtMillis) throws IOException {
+        MarketTable stats = marketStats;
+        if (stats == null) return; // unloaded
+        int row = stats.find(regionId, typeId);
+        if (row < 0 || stats.lastAccess(row) < scheduledAtMillis) return;
+        // failed or had no stats recently; the next read past that schedules a refresh again
+        if (isNegative(MarketTable.key(regionId, typeId), System.currentTimeMillis())) return;
+        Debug.print("Background refresh of " + typeId + " in " + regionId);
+        fetch(typeId, regionId);
+    }
+
+    /**
+     * Queues the proactive refresh of a freshly fetched entry, shortly before it expires.
+     */
+    private static void scheduleRefresh(int regionId, int typeId, Instant expiresAt) {
+        long now = System.currentTimeMillis();
+        long due = expiresAt.toEpochMilli() - REFRESH_LEAD.toMillis();
+        if (due < now + REFRESH_LEAD.toMillis()) due = expiresAt.toEpochMilli(); // the service has not moved on yet
+        refreshScheduler.schedule(regionId, typeId, Math.max(due, now + REFRESH_LEAD.toMillis()));
+    }
 
-            // Read the response
-            try (InputStream in = conn.getInputStream()) {
-                String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-                apiResponse = gson.fromJson(body, APIResponse.class);
-                Debug.print(body);
+    /**
+     * Single-flight fetch: concurrent callers asking for the same region and type share one request.
+     */
+    private static int fetch(int typeId, int regionId) throws IOException {
+        long key = MarketTable.key(regionId, typeId);
+        CompletableFuture<Integer> mine = new CompletableFuture<>();
+        CompletableFuture<Integer> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the stats of " + typeId + " in " + regionId);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new IOException(e.getCause());
             }
         }
-        buySellApiCache.put(urlString, new CachedResponse<>(apiResponse, expiresAt));
+        try {
+            int row = download(typeId, regionId);
+            mine.complete(row);
+            return row;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Stores the stats only once they were fetched whole; no stats or a failed fetch are remembered briefly instead,
+     * leaving any stale entry in place. The held entry is passed to the source, so unchanged stats can be revalidated
+     * instead of downloaded again; validators are only kept in memory, so the first refresh after a restart is a full
+     * fetch.
+     */
+    private static int download(int typeId, int regionId) throws IOException {
+        long key = MarketTable.key(regionId, typeId);
+        MarketDataSource.Quote quote;
+        try {
+            quote = marketDataSource().fetch(regionId, typeId, marketStats.quote(regionId, typeId));
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            negative.put(key, System.currentTimeMillis() + FAILURE_TTL.toMillis());
+            throw e;
+        }
+        if (quote == null) {
+            negative.put(key, System.currentTimeMillis() + NOT_FOUND_TTL.toMillis());
+            return -1;
+        }
+        negative.remove(key);
 
-        return apiResponse;
+        marketStore.append(regionId, typeId, quote.expiresAt(), quote.response());
+        int row = marketStats.put(regionId, typeId, quote.expiresAt().getEpochSecond(), quote.response(), quote.validators());
+        scheduleRefresh(regionId, typeId, quote.expiresAt());
+        return row;
     }
 
-    private static void populate(String url) {
-        String[] split = url.split("/");
-        Path fileName = cacheDir.resolve(split[split.length - 1]);
+    /**
+     * Downloads the dump unless it is already cached. A failed download is an error here, as nothing can be loaded
+     * without the dumps.
+     */
+    private static void populate(String url) throws IOException {
+        Path fileName = dumpFile(url);
         if (Files.isRegularFile(fileName)) {
             Debug.print("Cache hit " + fileName);
             return;
         }
-
-        try (BufferedInputStream in = new BufferedInputStream(new URL(url).openStream())) {
-            try (FileOutputStream fileOutputStream = new FileOutputStream(fileName.toFile())) {
-                Debug.print("Downloading " + fileName);
-                byte[] dataBuffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = in.read(dataBuffer, 0, 1024)) != -1) {
-                    fileOutputStream.write(dataBuffer, 0, bytesRead);
-                }
-            }
-        } catch (IOException e) {
-            // handle exception
+        Path staging = staging(fileName);
+        try {
+            Http.download(url, fileName, staging);
+            Files.move(staging, fileName, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staging);
         }
     }
 
+    private static Path dumpFile(String url) {
+        String[] split = url.split("/");
+        return cacheDir.resolve(split[split.length - 1]);
+    }
+
+    private static Path staging(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
     public static class APIResponse implements Serializable {
         long buyVolume;
         long sellVolume;
@@ -226,6 +863,9 @@ public class Cache {
         double minSell;
     }
 
+    /**
+     * Entry of the Java-serialized cache from before {@link MarketStore}; only kept to import old cache files.
+     */
     private static class CachedResponse<T> implements Serializable {
         T body;
         Instant expiresAt;
@@ -236,3 +876,4 @@ public class Cache {
         }
     }
 }
+
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the requests to a rate-limited service so bulk fetches run as fast as it allows.
+ * <p>
+ * A token bucket caps the request rate. Within that, the number of requests in flight is adapted AIMD style: it
+ * grows by about one per round trip while the smoothed latency stays near the lowest seen recently, and halves when
+ * latency climbs well past that or the service throttles (429, 5xx) or times out, at most once per round trip.
+ * Throttled and timed-out requests are retried with jittered exponential backoff, and a {@code Retry-After} holds back
+ * every request, not just the one retried.
+ */
+public final class FetchLimiter {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_BASE_MILLIS = 250;
+    private static final long BACKOFF_CAP_MILLIS = 30_000;
+    // a smoothed latency this many times the recent minimum counts as congestion
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final int LATENCY_WINDOW = 100;
+
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * The service refused to answer now; worth retrying later.
+     */
+    public static class Throttled extends IOException {
+        private final int status;
+        private final Duration retryAfter;
+
+        /**
+         * @param retryAfter how long the service asked to wait, or null
+         */
+        public Throttled(int status, Duration retryAfter) {
+            super("Throttled with " + status + (retryAfter == null ? "" : ", retry after " + retryAfter));
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public Duration retryAfter() {
+            return retryAfter;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFree = lock.newCondition();
+    private final double rate;
+    private final double burst;
+    private final int maxConcurrency;
+
+    // all guarded by lock
+    private double tokens;
+    private long tokensUpdatedNanos = System.nanoTime();
+    private long pausedUntilNanos = tokensUpdatedNanos;
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos = tokensUpdatedNanos;
+    private long baselineLatencyNanos;
+    private long smoothedLatencyNanos;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private int windowSamples;
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * @param requestsPerSecond the most the service is ever asked for; also the burst size
+     * @param maxConcurrency    the most requests ever in flight
+     */
+    public FetchLimiter(double requestsPerSecond, int maxConcurrency) {
+        if (requestsPerSecond <= 0) throw new IllegalArgumentException("rate must be positive: " + requestsPerSecond);
+        if (maxConcurrency < 1) throw new IllegalArgumentException("concurrency must be positive: " + maxConcurrency);
+        this.rate = requestsPerSecond;
+        this.burst = Math.max(1, requestsPerSecond);
+        this.maxConcurrency = maxConcurrency;
+        this.tokens = burst;
+        this.limit = Math.min(4, maxConcurrency);
+    }
+
+    /**
+     * Runs the call once a slot and a token are free, retrying it while it is throttled or times out.
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            long startNanos = acquire();
+            Duration retryAfter;
+            try {
+                T result = call.call();
+                onSuccess(startNanos, System.nanoTime());
+                return result;
+            } catch (Throttled e) {
+                throttled.increment();
+                retryAfter = e.retryAfter();
+                onCongestion(startNanos, retryAfter);
+                if (attempt == MAX_ATTEMPTS) throw e;
+            } catch (HttpTimeoutException | ConnectException e) {
+                retryAfter = null;
+                onCongestion(startNanos, null);
+                if (attempt == MAX_ATTEMPTS) throw e;
+            } finally {
+                release();
+            }
+            retries.increment();
+            sleep(backoffMillis(attempt, retryAfter));
+        }
+    }
+
+    /**
+     * Full jitter: uniformly up to the exponential backoff of the attempt, but never before the service asked.
+     */
+    private static long backoffMillis(int attempt, Duration retryAfter) {
+        long ceiling = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 20));
+        long backoff = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return retryAfter == null ? backoff : Math.max(backoff, retryAfter.toMillis());
+    }
+
+    /**
+     * Waits for a slot under the current limit, then for a token.
+     *
+     * @return when the request may start, in nanos
+     */
+    private long acquire() throws InterruptedIOException {
+        long waitNanos;
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) slotFree.await();
+            inFlight++;
+
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - tokensUpdatedNanos) * rate / 1e9);
+            tokensUpdatedNanos = now;
+            tokens--;
+            // a negative balance is a reservation: the caller waits until the bucket has refilled to it
+            waitNanos = Math.max(tokens < 0 ? (long) (-tokens / rate * 1e9) : 0, pausedUntilNanos - now);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (waitNanos > 0) sleep(waitNanos / 1_000_000);
+        } catch (InterruptedIOException e) {
+            release();
+            throw e;
+        }
+        return System.nanoTime();
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFree.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long startNanos, long endNanos) {
+        long latency = endNanos - startNanos;
+        lock.lock();
+        try {
+            windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latency);
+            if (baselineLatencyNanos == 0 || ++windowSamples == LATENCY_WINDOW) {
+                // the minimum of the last window, so the baseline follows the service when it gets slower for good
+                baselineLatencyNanos = windowMinLatencyNanos;
+                windowMinLatencyNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+            smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latency : (long) (LATENCY_SMOOTHING * latency + (1 - LATENCY_SMOOTHING) * smoothedLatencyNanos);
+            if (smoothedLatencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos) {
+                decrease(startNanos);
+            } else if (limit < maxConcurrency) {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+                slotFree.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onCongestion(long startNanos, Duration retryAfter) {
+        lock.lock();
+        try {
+            decrease(startNanos);
+            if (retryAfter != null) {
+                pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + retryAfter.toNanos());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Halves the limit, unless it already was since the request started: requests in flight at the time of a
+     * decrease saw the same congestion and must not compound it.
+     */
+    private void decrease(long startNanos) {
+        if (startNanos - lastDecreaseNanos < 0) return;
+        limit = Math.max(1, limit / 2);
+        lastDecreaseNanos = System.nanoTime();
+        Debug.print("Market requests in flight limited to " + (int) limit);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * How many requests may currently be in flight.
+     */
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long throttled() {
+        return throttled.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+}
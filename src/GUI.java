@@ -1,10 +1,18 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.Timer;
 import javax.swing.text.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class GUI {
@@ -12,8 +20,17 @@ public class GUI {
     private JTextArea _textArea;
     private JFormattedTextField _costPerM3;
     private JFrame _frame;
+    private JButton _calculateButton;
+    private JButton _cancelButton;
+    private JProgressBar _progressBar;
+    private JLabel _statusLabel;
+    private CalculationWorker _worker;
+    private ResultTableModel _results;
+    private JTable _resultTable;
+    private final SimpleSolver solver = new SimpleSolver();
     private static Map<String, SimpleSolver.PriceCalculator> PRICE_CALCULATOR_MAP = new HashMap<>();
     private static Map<String, Integer> SYSTEM_MAP = new HashMap<>();
+    private static final String ALL_SYSTEMS = "All Hubs";
     private JComboBox<String> buyOptionDropdown;
     private JComboBox<String> systemSelectorDropdown;
 
@@ -30,7 +47,8 @@ public class GUI {
 
     static void main() throws Exception {
         try {
-            Cache.initialize();
+            // the window only needs the SDE; the market cache keeps loading behind it
+            Cache.initializeAsync();
             new GUI().run();
         } finally {
             Cache.save();
@@ -88,20 +106,22 @@ public class GUI {
         buttonPanel.add(costPerM3Label);
         buttonPanel.add(_costPerM3);
 
-        JButton calculateButton = createButton(buttonPanel, "Calculate");
-        calculateButton.addActionListener(e -> {
-            try {
-                calculate();
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
+        _calculateButton = createButton(buttonPanel, "Calculate");
+        _calculateButton.addActionListener(e -> calculate());
+
+        _cancelButton = createButton(buttonPanel, "Cancel");
+        _cancelButton.setEnabled(false);
+        _cancelButton.addActionListener(e -> {
+            if (_worker != null) _worker.cancel(true);
         });
 
         String[] buyChoices = PRICE_CALCULATOR_MAP.keySet().stream().sorted().toList().toArray(new String[0]);
         buyOptionDropdown = new JComboBox<>(buyChoices);
         buttonPanel.add(buyOptionDropdown);
 
-        String[] systemChoices = SYSTEM_MAP.keySet().stream().sorted().toList().toArray(new String[0]);
+        List<String> systems = new ArrayList<>(SYSTEM_MAP.keySet().stream().sorted().toList());
+        systems.add(ALL_SYSTEMS);
+        String[] systemChoices = systems.toArray(new String[0]);
         systemSelectorDropdown = new JComboBox<>(systemChoices);
         buttonPanel.add(systemSelectorDropdown);
 
@@ -110,15 +130,64 @@ public class GUI {
         clearCacheButton.addActionListener(e -> clearCache());
 
         JButton saveCacheButton = createButton(buttonPanel, "Save Cache");
-        saveCacheButton.addActionListener(e -> {
-            try {
-                Cache.save();
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
+        saveCacheButton.addActionListener(e -> saveCache());
+
+        _frame.add(buttonPanel);
+
+        JPanel progressPanel = new JPanel();
+        progressPanel.setMaximumSize(new Dimension(3000, 30));
+        progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.X_AXIS));
+        _progressBar = new JProgressBar(0, 1000);
+        _progressBar.setStringPainted(true);
+        _progressBar.setString("");
+        progressPanel.add(_progressBar);
+        _statusLabel = new JLabel(" ");
+        progressPanel.add(_statusLabel);
+        _frame.add(progressPanel);
+
+        Map<Integer, String> systemNames = new HashMap<>();
+        SYSTEM_MAP.forEach((name, id) -> systemNames.put(id, name));
+        _results = new ResultTableModel(systemNames::get);
+        _resultTable = new JTable(_results);
+        _resultTable.setFillsViewportHeight(true);
+        _resultTable.getTableHeader().setReorderingAllowed(false);
+        _resultTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = _resultTable.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                _results.sortBy(_resultTable.convertColumnIndexToModel(column));
+                for (int c = 0; c < _results.getColumnCount(); c++) {
+                    _resultTable.getColumnModel().getColumn(c).setHeaderValue(_results.getColumnName(c));
+                }
+                _resultTable.getTableHeader().repaint();
             }
         });
 
-        _frame.add(buttonPanel);
+        JPanel filterPanel = new JPanel();
+        filterPanel.setMaximumSize(new Dimension(3000, 30));
+        filterPanel.setLayout(new BoxLayout(filterPanel, BoxLayout.X_AXIS));
+        filterPanel.add(new JLabel("Filter: "));
+        JTextField filterField = new JTextField();
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                _results.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                _results.setFilter(filterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                _results.setFilter(filterField.getText());
+            }
+        });
+        filterPanel.add(filterField);
+        _frame.add(filterPanel);
+        _frame.add(new JScrollPane(_resultTable));
 
         // 400 width and 500 height
         _frame.setSize(800, 800);
@@ -127,12 +196,55 @@ public class GUI {
         _frame.setVisible(true);
     }
 
+    private interface CacheAction {
+        void run() throws Exception;
+    }
+
     public void clearCache() {
-        // TODO
+        inBackground("Clearing the market cache", "Market cache cleared", "Clearing the cache failed", Cache::clearMarketCache);
+    }
+
+    public void saveCache() {
+        inBackground("Saving the cache", "Cache saved", "Saving the cache failed", Cache::save);
+    }
+
+    /**
+     * Runs a cache operation off the event dispatch thread, as it first waits for the market cache to finish loading
+     * and then goes to disk. The status line shows its progress and a failure is shown in a dialog.
+     */
+    private void inBackground(String running, String finished, String failed, CacheAction action) {
+        _statusLabel.setText("  " + running);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                action.run();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    _statusLabel.setText("  " + finished);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    _statusLabel.setText(" ");
+                    JOptionPane.showMessageDialog(_frame, failed + ": " + e.getCause());
+                }
+            }
+        }.execute();
     }
 
-    public void calculate() throws Exception {
-        List<String> errors = doCalculate();
+    /**
+     * Parses the input on the event dispatch thread and solves in the background. Profitable items are added to the
+     * result table as they are found, and replaced by the final results once solving completes.
+     */
+    public void calculate() {
+        if (_worker != null) return;
+        List<String> errors = new ArrayList<>();
+        List<Integer> ids = parseInput(_textArea.getText(), errors);
         if (!errors.isEmpty()) {
             StringBuilder sb = new StringBuilder();
             for (String error : errors) {
@@ -141,51 +253,161 @@ public class GUI {
             }
             JOptionPane.showMessageDialog(_frame, sb.toString());
         }
+        System.out.println("ids.size():" + ids.size());
+
+        String system = (String) systemSelectorDropdown.getSelectedItem();
+        int costPerM3 = Integer.parseInt(_costPerM3.getText());
+        SimpleSolver.PriceCalculator priceCalculator = PRICE_CALCULATOR_MAP.get(buyOptionDropdown.getSelectedItem());
+        _worker = new CalculationWorker(ids, system, costPerM3, priceCalculator);
+        _calculateButton.setEnabled(false);
+        _cancelButton.setEnabled(true);
+        _results.setResults(List.of());
+        _worker.execute();
     }
 
-    private List<String> doCalculate() throws Exception {
+    private List<Integer> parseInput(String s, List<String> errors) {
+        InventoryParser.Result parsed = InventoryParser.parse(s, Cache.nameIndex());
+        errors.addAll(parsed.errors());
+        return parsed.typeIdList();
+    }
 
-        String s = _textArea.getText();
-        List<String> errors = new ArrayList<>();
-        Pattern p = Pattern.compile("\\([^)]*\\)");
-        List<Integer> ids = new ArrayList<>();
-        for (String line : s.split("\n")) {
-            String resource;
-            line = line.strip();
+    /**
+     * Solves off the event dispatch thread. The solver's worker threads only update the volatile progress fields;
+     * a timer copies them to the progress bar a few times a second, so no workload can flood the event queue.
+     */
+    private class CalculationWorker extends SwingWorker<List<ReprocessResult>, ReprocessResult> implements SimpleSolver.ProgressListener {
+        private final List<Integer> ids;
+        private final String system;
+        private final int costPerM3;
+        private final SimpleSolver.PriceCalculator priceCalculator;
+        private final Timer timer = new Timer(200, e -> showProgress());
+
+        private volatile String phase = "Starting";
+        private volatile int done;
+        private volatile int total;
+        private volatile long phaseStartNanos = System.nanoTime();
+        private final AtomicInteger failedFetches = new AtomicInteger();
+        // a worker cancelled before it started never runs doInBackground, so done() frees it instead
+        private volatile boolean started;
+        private final Cache.MarketCacheStats statsAtStart = Cache.marketCacheStats();
+
+        CalculationWorker(List<Integer> ids, String system, int costPerM3, SimpleSolver.PriceCalculator priceCalculator) {
+            this.ids = ids;
+            this.system = system;
+            this.costPerM3 = costPerM3;
+            this.priceCalculator = priceCalculator;
+            timer.start();
+        }
+
+        @Override
+        protected List<ReprocessResult> doInBackground() throws Exception {
+            started = true;
             try {
-                Matcher m = p.matcher(line);
-                resource = m.replaceAll("\t").strip().split("\t", 2)[0]; // TODO: Smart parsing
-            } catch (Exception e) {
-                errors.add("Unable to parse '" + line + "'");
-                continue;
-            }
-            if (resource.isEmpty()) {
-                continue;
+                return solve();
+            } finally {
+                // a cancelled worker is done() at once, but only free for the next calculation once it has stopped
+                SwingUtilities.invokeLater(this::stopped);
             }
+        }
 
-            try {
-                int i = Cache.getItemId(resource);
-                ids.add(i);
-            } catch (Exception e) {
-                errors.add("Unable to find id for '" + resource + "'");
+        private List<ReprocessResult> solve() throws Exception {
+            if (ALL_SYSTEMS.equals(system)) {
+                int[] systemIds = SYSTEM_MAP.values().stream().mapToInt(Integer::intValue).toArray();
+                return solver.solveRegions(ids, systemIds, 0.5f, costPerM3, priceCalculator, this);
             }
+            return solver.results(ids, SYSTEM_MAP.get(system), 0.5f, costPerM3, priceCalculator, this, Integer.MAX_VALUE);
+        }
 
+        @Override
+        public void fetched(int done, int total) {
+            update("Fetching prices", done, total);
         }
 
-        System.out.println("ids.size():" + ids.size());
+        @Override
+        public void failed(int typeId, int regionId, IOException e) {
+            failedFetches.incrementAndGet();
+        }
 
-        SimpleSolver solver = new SimpleSolver();
+        @Override
+        public void progress(int done, int total) {
+            update("Evaluating", done, total);
+        }
 
-        StringBuilder sb = new StringBuilder();
-        for (String string : solver.solve(ids, SYSTEM_MAP.get(systemSelectorDropdown.getSelectedItem()), 0.5f, Integer.parseInt(_costPerM3.getText()), PRICE_CALCULATOR_MAP.get(buyOptionDropdown.getSelectedItem()))) {
-            sb.append(string);
+        private void update(String phase, int done, int total) {
+            if (!phase.equals(this.phase)) {
+                this.phase = phase;
+                phaseStartNanos = System.nanoTime();
+            }
+            this.done = done;
+            this.total = total;
         }
 
-        _textArea.setText(sb.toString());
+        @Override
+        public void found(ReprocessResult result) {
+            publish(result);
+        }
+
+        @Override
+        public boolean cancelled() {
+            return isCancelled();
+        }
 
+        @Override
+        protected void process(List<ReprocessResult> found) {
+            if (isCancelled()) return;
+            _results.addResults(found);
+        }
 
-        return errors;
+        private void showProgress() {
+            int done = this.done;
+            int total = this.total;
+            _progressBar.setValue(total == 0 ? 0 : (int) (1000L * done / total));
+            _progressBar.setString(phase + (total == 0 ? "" : " " + done + " / " + total));
 
+            String eta = "";
+            if (done > 0 && done < total) {
+                long remainingNanos = (System.nanoTime() - phaseStartNanos) / done * (total - done);
+                eta = String.format("ETA %ds, ", TimeUnit.NANOSECONDS.toSeconds(remainingNanos) + 1);
+            }
+            Cache.MarketCacheStats stats = Cache.marketCacheStats();
+            long hits = stats.hits() - statsAtStart.hits();
+            long lookups = hits + stats.misses() - statsAtStart.misses();
+            _statusLabel.setText(String.format("  %scache hits %.0f%%", eta, lookups == 0 ? 0 : 100.0 * hits / lookups));
+        }
+
+        private void stopped() {
+            if (_worker != this) return; // already freed, and maybe replaced
+            _worker = null;
+            _calculateButton.setEnabled(true);
+        }
+
+        @Override
+        protected void done() {
+            timer.stop();
+            showProgress();
+            _cancelButton.setEnabled(false);
+            if (!started) stopped();
+            try {
+                _results.setResults(get());
+                _progressBar.setValue(_progressBar.getMaximum());
+                _progressBar.setString("Done");
+                if (failedFetches.get() > 0) {
+                    JOptionPane.showMessageDialog(_frame, failedFetches.get() + " market prices could not be fetched;"
+                            + " those items are priced as if they had no orders.", "Missing prices", JOptionPane.WARNING_MESSAGE);
+                }
+            } catch (CancellationException e) {
+                _progressBar.setString("Cancelled");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                _progressBar.setString("Failed");
+                if (!(cause instanceof CancellationException)) {
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(_frame, "Calculation failed: " + cause);
+                }
+            }
+        }
     }
 
 
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one HTTP client all market and dump fetches go through. Connections are pooled and kept alive across
+ * requests, HTTP/2 is used where the server offers it, bodies may come gzip-compressed, and every request has a
+ * timeout. Requests can carry the validators of a copy already held, so unchanged data comes back as a bodiless 304.
+ */
+final class Http {
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    static final Duration DOWNLOAD_TIMEOUT = Duration.ofMinutes(10);
+    static final int NOT_MODIFIED = 304;
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private Http() {
+    }
+
+    /**
+     * What identifies the version of a resource held, sent back as {@code If-None-Match} and
+     * {@code If-Modified-Since}; either may be null.
+     */
+    record Validators(String etag, String lastModified) {
+        static final Validators NONE = new Validators(null, null);
+
+        static Validators of(HttpResponse<?> response) {
+            HttpHeaders headers = response.headers();
+            return new Validators(headers.firstValue("ETag").orElse(null), headers.firstValue("Last-Modified").orElse(null));
+        }
+
+        static Validators modifiedAt(Instant lastModified) {
+            return new Validators(null, DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC)));
+        }
+
+        boolean isEmpty() {
+            return etag == null && lastModified == null;
+        }
+    }
+
+    /**
+     * Sends a GET. The body must be closed; read a 200's through {@link #body}.
+     */
+    static HttpResponse<InputStream> get(String url, Duration timeout, Validators validators) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Accept-Encoding", "gzip");
+        if (validators.etag() != null) request.header("If-None-Match", validators.etag());
+        if (validators.lastModified() != null) request.header("If-Modified-Since", validators.lastModified());
+        try {
+            return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + url);
+        }
+    }
+
+    /**
+     * The body of a 200 response, decompressed if the server compressed it.
+     */
+    static InputStream body(HttpResponse<InputStream> response) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false);
+        return gzip ? new GZIPInputStream(response.body(), 1 << 16) : response.body();
+    }
+
+    /**
+     * @return the instant of an HTTP date header, or null if the response has none or it does not parse
+     */
+    static Instant date(HttpResponse<?> response, String header) {
+        String value = response.headers().firstValue(header).orElse(null);
+        if (value == null) return null;
+        try {
+            return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Streams a file to {@code staging} unless the copy at {@code current} is still up to date. The staged file
+     * gets the server's modification time, which is what the next call revalidates against.
+     *
+     * @return true if a new version was staged, false if {@code current} is unchanged
+     */
+    static boolean download(String url, Path current, Path staging) throws IOException {
+        Validators validators = Files.isRegularFile(current)
+                ? Validators.modifiedAt(Files.getLastModifiedTime(current).toInstant())
+                : Validators.NONE;
+        HttpResponse<InputStream> response = get(url, DOWNLOAD_TIMEOUT, validators);
+        if (response.statusCode() != 200) {
+            response.body().close();
+            if (response.statusCode() == NOT_MODIFIED && !validators.isEmpty()) {
+                Debug.print("Not modified " + current);
+                return false;
+            }
+            throw new IOException("GET " + url + " returned " + response.statusCode());
+        }
+        Debug.print("Downloading " + current);
+        try (InputStream in = body(response)) {
+            Files.copy(in, staging, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Instant lastModified = date(response, "Last-Modified");
+        if (lastModified != null) Files.setLastModifiedTime(staging, FileTime.from(lastModified));
+        return true;
+    }
+}
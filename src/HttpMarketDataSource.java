@@ -0,0 +1,105 @@
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * The EVE Tycoon market stats API, or anything serving the same paths such as {@link MarketStubServer}.
+ * <p>
+ * Requests go through the shared {@link Http} client, paced by a {@link FetchLimiter} that retries throttled ones.
+ * Quotes carry the validators of their response, which {@link Cache} keeps with the stats, so a refresh of stats that
+ * have not changed is answered with a 304 and reuses the held ones.
+ */
+public class HttpMarketDataSource implements MarketDataSource {
+    static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    static final double DEFAULT_RATE = 20;
+    static final int MAX_CONCURRENCY = 32;
+
+    private final Gson gson = new Gson();
+    private final String baseUrl;
+    private final FetchLimiter limiter;
+
+    /**
+     * @param baseUrl e.g. {@code https://evetycoon.com/api}
+     */
+    public HttpMarketDataSource(String baseUrl) {
+        this(baseUrl, new FetchLimiter(DEFAULT_RATE, MAX_CONCURRENCY));
+    }
+
+    public HttpMarketDataSource(String baseUrl, FetchLimiter limiter) {
+        this.baseUrl = baseUrl;
+        this.limiter = limiter;
+    }
+
+    public FetchLimiter limiter() {
+        return limiter;
+    }
+
+    String url(int regionId, int typeId) {
+        return baseUrl + "/v1/market/stats/%d/%d".formatted(regionId, typeId);
+    }
+
+    @Override
+    public Quote fetch(int regionId, int typeId) throws IOException {
+        return fetch(regionId, typeId, null);
+    }
+
+    /**
+     * @throws FetchLimiter.Throttled if the service still throttled the request after all retries
+     */
+    @Override
+    public Quote fetch(int regionId, int typeId, Quote held) throws IOException {
+        return limiter.execute(() -> request(regionId, typeId, held));
+    }
+
+    private Quote request(int regionId, int typeId, Quote held) throws IOException {
+        Http.Validators validators = held == null ? Http.Validators.NONE : held.validators();
+        HttpResponse<InputStream> response = Http.get(url(regionId, typeId), Http.REQUEST_TIMEOUT, validators);
+
+        int status = response.statusCode();
+        if (status != 200) {
+            response.body().close();
+            if (status == Http.NOT_MODIFIED && !validators.isEmpty()) {
+                Debug.print("Not modified: " + regionId + "/" + typeId);
+                return new Quote(held.response(), expiresAt(response), validators);
+            }
+            if (status == 429 || status >= 500) throw new FetchLimiter.Throttled(status, retryAfter(response));
+            if (status != 404) throw new IOException("GET " + url(regionId, typeId) + " returned " + status);
+            return null;
+        }
+
+        Cache.APIResponse stats;
+        try (Reader in = new InputStreamReader(Http.body(response), StandardCharsets.UTF_8)) {
+            stats = gson.fromJson(in, Cache.APIResponse.class);
+        }
+        if (stats == null) return null;
+        return new Quote(stats, expiresAt(response), Http.Validators.of(response));
+    }
+
+    /**
+     * @return the wait the service asked for, in seconds or as a date, or null
+     */
+    private static Duration retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) return null;
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.strip()));
+        } catch (NumberFormatException e) {
+            Instant at = Http.date(response, "Retry-After");
+            return at == null ? null : Duration.between(Instant.now(), at);
+        }
+    }
+
+    private static Instant expiresAt(HttpResponse<?> response) {
+        Instant expiresAt = Http.date(response, "Expires");
+        if (expiresAt == null) return Instant.now().plus(DEFAULT_TTL);
+        Debug.print("Expires at: " + expiresAt);
+        return expiresAt;
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.*;
+
+/**
+ * Reads items and quantities from text copied out of the EVE client, in one pass over the text.
+ * <p>
+ * Every line is one item. Tab-separated lines, as copied from inventories, asset lists and contracts, have the name
+ * in the first field and the quantity in the second; an empty quantity means 1. Other lines are multibuy style:
+ * a name, optionally followed by a quantity as in {@code Tritanium 1000}, {@code Tritanium x1000} or
+ * {@code Tritanium x 1,000}; a line that is a name as a whole is never split, and of the ways to split off a
+ * quantity the longest name wins. A name ends at the first {@code (}, so annotations like {@code (Copy)} are ignored.
+ * Quantities may use any of {@code , . '} and spaces as thousands separators.
+ * <p>
+ * Names are resolved in place against a {@link NameIndex}; only lines that fail to resolve allocate.
+ */
+public final class InventoryParser {
+    private static final int SUGGESTIONS = 3;
+
+    /**
+     * @param typeIds    in order of first appearance
+     * @param quantities summed over all lines of the type
+     * @param errors     one message per line that could not be read
+     */
+    public record Result(int[] typeIds, long[] quantities, List<String> errors) {
+        public List<Integer> typeIdList() {
+            return Arrays.stream(typeIds).boxed().toList();
+        }
+    }
+
+    private final NameIndex names;
+    private int[] typeIds = new int[64];
+    private long[] quantities = new long[64];
+    private int size;
+    private final Map<Integer, Integer> positions = new HashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private InventoryParser(NameIndex names) {
+        this.names = names;
+    }
+
+    public static Result parse(CharSequence text, NameIndex names) {
+        InventoryParser parser = new InventoryParser(names);
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n') end++;
+            parser.parseLine(text, start, end);
+            start = end + 1;
+        }
+        return new Result(Arrays.copyOf(parser.typeIds, parser.size), Arrays.copyOf(parser.quantities, parser.size), List.copyOf(parser.errors));
+    }
+
+    private void parseLine(CharSequence text, int start, int end) {
+        while (start < end && isBlank(text.charAt(start))) start++;
+        while (end > start && isBlank(text.charAt(end - 1))) end--;
+        if (start == end) return;
+
+        int tab = indexOf(text, '\t', start, end);
+        int nameEnd = tab < 0 ? end : tab;
+        int paren = indexOf(text, '(', start, nameEnd);
+        if (paren >= 0) nameEnd = paren;
+        while (nameEnd > start && isBlank(text.charAt(nameEnd - 1))) nameEnd--;
+        if (nameEnd == start) {
+            errors.add("Unable to parse '" + text.subSequence(start, end) + "'");
+            return;
+        }
+
+        long quantity = 1;
+        if (tab >= 0) {
+            int fieldEnd = indexOf(text, '\t', tab + 1, end);
+            long parsed = parseQuantity(text, tab + 1, fieldEnd < 0 ? end : fieldEnd);
+            if (parsed > 0) quantity = parsed;
+        }
+
+        int typeId = names.find(text, start, nameEnd);
+        if (typeId < 0 && tab < 0) {
+            // multibuy: the name is followed by a quantity, possibly with an x. Names may end in numbers themselves,
+            // so the quantity is split off at each number in the numeric tail, shortest first: the longest name
+            // that resolves wins, as in "Fleet Command 2 10" or "Tritanium 1 000"
+            for (int digits = nameEnd - 1; digits > start && typeId < 0; digits--) {
+                char c = text.charAt(digits);
+                if (!isDigit(c) && !isSeparator(c)) break;
+                char before = text.charAt(digits - 1);
+                if (!isDigit(c) || !(isBlank(before) || before == 'x' || before == 'X')) continue;
+                int multibuyEnd = digits;
+                while (multibuyEnd > start && isBlank(text.charAt(multibuyEnd - 1))) multibuyEnd--;
+                if (multibuyEnd > start && (text.charAt(multibuyEnd - 1) == 'x' || text.charAt(multibuyEnd - 1) == 'X')) multibuyEnd--;
+                while (multibuyEnd > start && isBlank(text.charAt(multibuyEnd - 1))) multibuyEnd--;
+                if (multibuyEnd > start && multibuyEnd < digits && isBlank(text.charAt(multibuyEnd))) {
+                    typeId = names.find(text, start, multibuyEnd);
+                    if (typeId >= 0) quantity = Math.max(1, parseQuantity(text, digits, nameEnd));
+                }
+            }
+        }
+        if (typeId < 0) {
+            String name = text.subSequence(start, nameEnd).toString();
+            List<String> suggestions = names.suggest(name, SUGGESTIONS);
+            errors.add("Unable to find id for '" + name + "'" + (suggestions.isEmpty() ? "" : "; did you mean " + String.join(", ", suggestions) + "?"));
+            return;
+        }
+        add(typeId, quantity);
+    }
+
+    private void add(int typeId, long quantity) {
+        Integer position = positions.putIfAbsent(typeId, size);
+        if (position != null) {
+            quantities[position] += quantity;
+            return;
+        }
+        if (size == typeIds.length) {
+            typeIds = Arrays.copyOf(typeIds, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        typeIds[size] = typeId;
+        quantities[size] = quantity;
+        size++;
+    }
+
+    /**
+     * @return the number in {@code text[from, to)}, 0 if the range has no digits, or -1 if it is not a number
+     */
+    static long parseQuantity(CharSequence text, int from, int to) {
+        long quantity = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                quantity = quantity * 10 + (c - '0');
+            } else if (!isSeparator(c)) {
+                return -1;
+            }
+        }
+        return quantity;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == '.' || c == '\'' || c == ' ' || c == '\u00a0' || c == '\u202f';
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\u00a0';
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Where {@link Cache} gets market stats from on a miss or refresh.
+ * <p>
+ * Besides the live service there is a recorder, which writes every response it passes through to a snapshot, and
+ * a replayer, which serves a snapshot from memory. {@link MarketStubServer} serves a snapshot over HTTP in the live
+ * service's format, so the whole fetch pipeline can be exercised offline.
+ */
+public interface MarketDataSource extends Closeable {
+    /**
+     * @param expiresAt  when the stats should be fetched again
+     * @param validators what the source can revalidate the stats with, or {@link Http.Validators#NONE}
+     */
+    record Quote(Cache.APIResponse response, Instant expiresAt, Http.Validators validators) {
+        Quote(Cache.APIResponse response, Instant expiresAt) {
+            this(response, expiresAt, Http.Validators.NONE);
+        }
+    }
+
+    /**
+     * @return the stats of the type in the region, or null if the market has none
+     */
+    Quote fetch(int regionId, int typeId) throws IOException;
+
+    /**
+     * Like {@link #fetch(int, int)}, but a source that can revalidate may answer with the held stats if they have
+     * not changed.
+     *
+     * @param held the quote already cached, or null
+     */
+    default Quote fetch(int regionId, int typeId, Quote held) throws IOException {
+        return fetch(regionId, typeId);
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Picks the source from the system properties:
+     * <ul>
+     *     <li>{@code eve.market.mode}: {@code live} (the default), {@code record} or {@code replay}</li>
+     *     <li>{@code eve.market.url}: base URL of the live service, e.g. a {@link MarketStubServer}</li>
+     *     <li>{@code eve.market.rate}: the most requests per second sent to the live service</li>
+     *     <li>{@code eve.market.snapshot}: the snapshot to record to or replay from</li>
+     * </ul>
+     */
+    static MarketDataSource fromSystemProperties(String defaultUrl, Path defaultSnapshot) throws IOException {
+        String url = System.getProperty("eve.market.url", defaultUrl);
+        Path snapshot = Path.of(System.getProperty("eve.market.snapshot", defaultSnapshot.toString()));
+        FetchLimiter limiter = new FetchLimiter(Double.parseDouble(System.getProperty("eve.market.rate", String.valueOf(HttpMarketDataSource.DEFAULT_RATE))),
+                HttpMarketDataSource.MAX_CONCURRENCY);
+        return switch (System.getProperty("eve.market.mode", "live")) {
+            case "live" -> new HttpMarketDataSource(url, limiter);
+            case "record" -> new RecordingMarketDataSource(new HttpMarketDataSource(url, limiter), snapshot);
+            case "replay" -> new ReplayMarketDataSource(snapshot);
+            default -> throw new IllegalArgumentException("Unknown eve.market.mode: " + System.getProperty("eve.market.mode"));
+        };
+    }
+}
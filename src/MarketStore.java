@@ -0,0 +1,231 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of market stats, one fixed-size record per refreshed (region, type).
+ * <p>
+ * Every record carries a CRC32, so a write torn by a crash is detected on open and truncated away; it only
+ * ever costs the last record. The index from (region, type) to its latest record is rebuilt on open. A removed
+ * entry is logged as a tombstone, a record with {@link #TOMBSTONE} as its expiry, so it stays removed after a
+ * restart. Superseded records and tombstones are dropped by {@link #compact()}, which rewrites the log and swaps it
+ * in atomically.
+ */
+public final class MarketStore implements Closeable {
+    private static final int MAGIC = 0x45564d53; // "EVMS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int PAYLOAD_BYTES = 4 + 4 + 8 + 6 * 8 + 6 * 8;
+    private static final int RECORD_BYTES = PAYLOAD_BYTES + 4;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+
+    private final Path file;
+    private FileChannel channel;
+    private final Map<Long, Long> index = new HashMap<>();
+    private long records;
+
+    public interface RecordConsumer {
+        void accept(int regionId, int typeId, Instant expiresAt, Cache.APIResponse response);
+    }
+
+    private MarketStore(Path file) {
+        this.file = file;
+    }
+
+    public static MarketStore open(Path file) throws IOException {
+        MarketStore store = new MarketStore(file);
+        store.openChannel();
+        return store;
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        records = 0;
+        if (channel.size() < HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.position(HEADER_BYTES);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a market store: " + file);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        CRC32 crc = new CRC32();
+        long position = HEADER_BYTES;
+        while (true) {
+            record.clear();
+            if (channel.read(record, position) < RECORD_BYTES) break;
+            crc.reset();
+            crc.update(record.array(), 0, PAYLOAD_BYTES);
+            if ((int) crc.getValue() != record.getInt(PAYLOAD_BYTES)) break;
+            long key = key(record.getInt(0), record.getInt(4));
+            if (record.getLong(8) == TOMBSTONE) {
+                index.remove(key);
+            } else {
+                index.put(key, position);
+            }
+            records++;
+            position += RECORD_BYTES;
+        }
+        if (position < channel.size()) {
+            Debug.print("Truncating torn market store tail at " + position);
+            channel.truncate(position);
+        }
+        channel.position(position);
+    }
+
+    private static long key(int regionId, int typeId) {
+        return (long) regionId << 32 | (typeId & 0xffffffffL);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Replays the latest record of every (region, type).
+     */
+    public synchronized void forEach(RecordConsumer consumer) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        // the consumer may evict entries, which removes them from the index
+        for (long position : index.values().stream().mapToLong(Long::longValue).toArray()) {
+            record.clear();
+            channel.read(record, position);
+            record.flip();
+            int regionId = record.getInt();
+            int typeId = record.getInt();
+            Instant expiresAt = Instant.ofEpochSecond(record.getLong());
+            Cache.APIResponse response = new Cache.APIResponse();
+            response.buyVolume = record.getLong();
+            response.sellVolume = record.getLong();
+            response.buyOrders = record.getLong();
+            response.sellOrders = record.getLong();
+            response.buyOutliers = record.getLong();
+            response.sellOutliers = record.getLong();
+            response.buyThreshold = record.getDouble();
+            response.sellThreshold = record.getDouble();
+            response.buyAvgFivePercent = record.getDouble();
+            response.sellAvgFivePercent = record.getDouble();
+            response.maxBuy = record.getDouble();
+            response.minSell = record.getDouble();
+            consumer.accept(regionId, typeId, expiresAt, response);
+        }
+    }
+
+    public synchronized void append(int regionId, int typeId, Instant expiresAt, Cache.APIResponse response) throws IOException {
+        index.put(key(regionId, typeId), write(regionId, typeId, expiresAt.getEpochSecond(), response));
+    }
+
+    /**
+     * @return the position the record was written at
+     */
+    private long write(int regionId, int typeId, long expiresAt, Cache.APIResponse response) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putInt(regionId).putInt(typeId).putLong(expiresAt);
+        record.putLong(response.buyVolume).putLong(response.sellVolume);
+        record.putLong(response.buyOrders).putLong(response.sellOrders);
+        record.putLong(response.buyOutliers).putLong(response.sellOutliers);
+        record.putDouble(response.buyThreshold).putDouble(response.sellThreshold);
+        record.putDouble(response.buyAvgFivePercent).putDouble(response.sellAvgFivePercent);
+        record.putDouble(response.maxBuy).putDouble(response.minSell);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, PAYLOAD_BYTES);
+        record.putInt((int) crc.getValue()).flip();
+
+        long position = channel.position();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        records++;
+        return position;
+    }
+
+    /**
+     * Drops the entry and logs a tombstone for it; its records become garbage for the next {@link #compact()}.
+     * <p>
+     * Called back from {@link MarketTable} evictions, which cannot fail, so a tombstone that cannot be written is
+     * only reported; the entry then comes back on the next open and is swept or refreshed like any other.
+     */
+    public synchronized void remove(int regionId, int typeId) {
+        if (index.remove(key(regionId, typeId)) == null) return;
+        try {
+            write(regionId, typeId, TOMBSTONE, new Cache.APIResponse());
+        } catch (IOException e) {
+            Debug.print("Failed to log the removal of " + regionId + "/" + typeId + ": " + e);
+        }
+    }
+
+    /**
+     * Drops every entry and truncates the log.
+     */
+    public synchronized void clear() throws IOException {
+        index.clear();
+        records = 0;
+        channel.truncate(HEADER_BYTES);
+        channel.position(HEADER_BYTES);
+    }
+
+    /**
+     * @return true if more than half of the log consists of superseded records and tombstones
+     */
+    public synchronized boolean needsCompaction() {
+        return records > 2L * index.size() + 1024;
+    }
+
+    /**
+     * Rewrites the log with only the latest record per (region, type). If the rewrite cannot replace the log, the log
+     * is reopened as it was.
+     */
+    public synchronized void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+                out.write(buffer);
+                buffer = ByteBuffer.allocate(RECORD_BYTES);
+                for (long position : index.values()) {
+                    buffer.clear();
+                    channel.read(buffer, position);
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                out.force(true);
+            }
+            // closed first, as some platforms cannot replace an open file
+            channel.close();
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                openChannel();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
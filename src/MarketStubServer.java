@@ -0,0 +1,107 @@
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the EVE Tycoon API, serving {@code /v1/market/stats/{region}/{type}} from a market snapshot.
+ * Point {@code eve.market.url} at {@link #baseUrl()} to run the live fetch path against it. Like a real server it
+ * compresses when asked to and answers a matching {@code If-None-Match} with a 304.
+ */
+public class MarketStubServer implements AutoCloseable {
+    private static final String PATH = "/v1/market/stats/";
+
+    private final Gson gson = new Gson();
+    private final MarketDataSource source;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Starts serving on the loopback interface.
+     *
+     * @param port 0 picks a free port
+     */
+    public MarketStubServer(MarketDataSource source, int port) throws IOException {
+        this.source = source;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Serves a snapshot until killed: {@code MarketStubServer <snapshot> [port]}.
+     */
+    static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: MarketStubServer <snapshot> [port]");
+            return;
+        }
+        ReplayMarketDataSource source = new ReplayMarketDataSource(Path.of(args[0]));
+        MarketStubServer server = new MarketStubServer(source, args.length > 1 ? Integer.parseInt(args[1]) : 8089);
+        System.out.println("Serving " + source.size() + " market stats at " + server.baseUrl());
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] ids = exchange.getRequestURI().getPath().substring(PATH.length()).split("/");
+            MarketDataSource.Quote quote;
+            try {
+                if (ids.length != 2) throw new NumberFormatException();
+                quote = source.fetch(Integer.parseInt(ids[0]), Integer.parseInt(ids[1]));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (quote == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = gson.toJson(quote.response()).getBytes(StandardCharsets.UTF_8);
+            String etag = '"' + Integer.toHexString(Arrays.hashCode(body)) + '"';
+            exchange.getResponseHeaders().set("Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(quote.expiresAt().atOffset(ZoneOffset.UTC)));
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+}
@@ -0,0 +1,496 @@
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * In-memory market stats keyed by {@code regionId << 32 | typeId}, stored as one primitive column per
+ * {@link Cache.APIResponse} field plus an expiry column in epoch seconds and the validators the stats were fetched
+ * with, so they are evicted and cleared together.
+ * <p>
+ * {@link #read} resolves a key to a row and reads it without allocating, {@link #get} copies a row out. Writers
+ * are serialized, readers take an optimistic read and only fall back to locking if a write raced them.
+ * <p>
+ * The table holds at most {@link #setMaxEntries maxEntries} rows. Inserting beyond that evicts an entry chosen by
+ * sampled LRU: the least recently {@link #touch touched} of a few random rows. Removed rows are reused by later
+ * inserts, so a row number is only meaningful until the next write: rows from {@link #find} and the column getters
+ * read without a lock are hints, e.g. for expiry checks, and values that must belong to the key go through
+ * {@link #read} or {@link #get}.
+ */
+public final class MarketTable {
+    private static final long EMPTY = 0; // region 0 / type 0 does not exist
+    private static final int EVICTION_SAMPLES = 8;
+
+    public interface RemovalListener {
+        void removed(int regionId, int typeId);
+    }
+
+    public interface RowReader {
+        double read(MarketTable stats, int row);
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final RemovalListener removalListener;
+    private Slots slots;
+    private int size;
+    private int highWater;
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private int maxEntries = Integer.MAX_VALUE;
+    private long evictions;
+    private volatile Columns columns;
+
+    /** Open-addressing hash from key to row, replaced as a whole on rehash. */
+    private record Slots(long[] key, int[] row) {
+        Slots(int capacity) {
+            this(new long[capacity], new int[capacity]);
+        }
+    }
+
+    /** One array per field, indexed by row; replaced as a whole when it grows. */
+    private static final class Columns {
+        final long[] key;
+        final long[] expiresAt;
+        final long[] lastAccess;
+        final long[] buyVolume;
+        final long[] sellVolume;
+        final long[] buyOrders;
+        final long[] sellOrders;
+        final long[] buyOutliers;
+        final long[] sellOutliers;
+        final double[] buyThreshold;
+        final double[] sellThreshold;
+        final double[] buyAvgFivePercent;
+        final double[] sellAvgFivePercent;
+        final double[] maxBuy;
+        final double[] minSell;
+        // null where the source sent none
+        final Http.Validators[] validators;
+
+        Columns(int capacity) {
+            key = new long[capacity];
+            expiresAt = new long[capacity];
+            lastAccess = new long[capacity];
+            buyVolume = new long[capacity];
+            sellVolume = new long[capacity];
+            buyOrders = new long[capacity];
+            sellOrders = new long[capacity];
+            buyOutliers = new long[capacity];
+            sellOutliers = new long[capacity];
+            buyThreshold = new double[capacity];
+            sellThreshold = new double[capacity];
+            buyAvgFivePercent = new double[capacity];
+            sellAvgFivePercent = new double[capacity];
+            maxBuy = new double[capacity];
+            minSell = new double[capacity];
+            validators = new Http.Validators[capacity];
+        }
+
+        Columns copy(int capacity, int rows) {
+            Columns c = new Columns(capacity);
+            System.arraycopy(key, 0, c.key, 0, rows);
+            System.arraycopy(expiresAt, 0, c.expiresAt, 0, rows);
+            System.arraycopy(lastAccess, 0, c.lastAccess, 0, rows);
+            System.arraycopy(buyVolume, 0, c.buyVolume, 0, rows);
+            System.arraycopy(sellVolume, 0, c.sellVolume, 0, rows);
+            System.arraycopy(buyOrders, 0, c.buyOrders, 0, rows);
+            System.arraycopy(sellOrders, 0, c.sellOrders, 0, rows);
+            System.arraycopy(buyOutliers, 0, c.buyOutliers, 0, rows);
+            System.arraycopy(sellOutliers, 0, c.sellOutliers, 0, rows);
+            System.arraycopy(buyThreshold, 0, c.buyThreshold, 0, rows);
+            System.arraycopy(sellThreshold, 0, c.sellThreshold, 0, rows);
+            System.arraycopy(buyAvgFivePercent, 0, c.buyAvgFivePercent, 0, rows);
+            System.arraycopy(sellAvgFivePercent, 0, c.sellAvgFivePercent, 0, rows);
+            System.arraycopy(maxBuy, 0, c.maxBuy, 0, rows);
+            System.arraycopy(minSell, 0, c.minSell, 0, rows);
+            System.arraycopy(validators, 0, c.validators, 0, rows);
+            return c;
+        }
+    }
+
+    public MarketTable() {
+        this(1024, (regionId, typeId) -> {
+        });
+    }
+
+    public MarketTable(int expectedSize, RemovalListener removalListener) {
+        this.removalListener = removalListener;
+        int slots = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        this.slots = new Slots(slots);
+        columns = new Columns(Math.max(16, expectedSize));
+    }
+
+    public static long key(int regionId, int typeId) {
+        return (long) regionId << 32 | (typeId & 0xffffffffL);
+    }
+
+    private static int hash(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Bounds the number of entries, evicting immediately if the table is already larger.
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        long stamp = lock.writeLock();
+        try {
+            this.maxEntries = maxEntries;
+            while (size > maxEntries) {
+                evictOne();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Records an access to the row, for the eviction policy.
+     */
+    public void touch(int row, long nowMillis) {
+        columns.lastAccess[row] = nowMillis;
+    }
+
+    /**
+     * @return the row holding the stats for the region and type, or -1 if there are none
+     */
+    public int find(int regionId, int typeId) {
+        long key = key(regionId, typeId);
+        long stamp = lock.tryOptimisticRead();
+        int row = probe(key);
+        if (lock.validate(stamp)) return row;
+        stamp = lock.readLock();
+        try {
+            return probe(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads a value from the row of the region and type, without allocating. The lookup and the read run under one
+     * optimistic stamp and are redone under the read lock if a write raced them, so the value never comes from a
+     * row that was meanwhile reused for another key.
+     *
+     * @return the value, or {@code absent} if there are no stats for the region and type
+     */
+    public double read(int regionId, int typeId, RowReader reader, double absent) {
+        long key = key(regionId, typeId);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int row = probe(key);
+            double value = row < 0 ? absent : reader.read(this, row);
+            if (lock.validate(stamp)) return value;
+        }
+        stamp = lock.readLock();
+        try {
+            int row = probe(key);
+            return row < 0 ? absent : reader.read(this, row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a copy of the stats for the region and type, or null if there are none
+     */
+    public Cache.APIResponse get(int regionId, int typeId) {
+        long stamp = lock.readLock();
+        try {
+            int row = probe(key(regionId, typeId));
+            return row < 0 ? null : toResponse(row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a copy of the stats for the region and type with their expiry and validators, or null if there are none
+     */
+    public MarketDataSource.Quote quote(int regionId, int typeId) {
+        long stamp = lock.readLock();
+        try {
+            int row = probe(key(regionId, typeId));
+            if (row < 0) return null;
+            Http.Validators validators = columns.validators[row];
+            return new MarketDataSource.Quote(toResponse(row), Instant.ofEpochSecond(columns.expiresAt[row]),
+                    validators == null ? Http.Validators.NONE : validators);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int probe(long key) {
+        Slots s = slots;
+        long[] keys = s.key;
+        int[] rows = s.row;
+        int mask = keys.length - 1;
+        for (int slot = hash(key, mask); ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) return rows[slot];
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    /**
+     * Inserts or overwrites the stats for the region and type.
+     *
+     * @return the row they were written to
+     */
+    public int put(int regionId, int typeId, long expiresAtEpochSecond, Cache.APIResponse response) {
+        return put(regionId, typeId, expiresAtEpochSecond, response, Http.Validators.NONE);
+    }
+
+    /**
+     * Inserts or overwrites the stats for the region and type, with the validators they were fetched with.
+     *
+     * @return the row they were written to
+     */
+    public int put(int regionId, int typeId, long expiresAtEpochSecond, Cache.APIResponse response, Http.Validators validators) {
+        long key = key(regionId, typeId);
+        long stamp = lock.writeLock();
+        try {
+            int row = probe(key);
+            if (row < 0) {
+                row = insert(key);
+            }
+            Columns c = columns;
+            c.expiresAt[row] = expiresAtEpochSecond;
+            c.lastAccess[row] = System.currentTimeMillis();
+            c.buyVolume[row] = response.buyVolume;
+            c.sellVolume[row] = response.sellVolume;
+            c.buyOrders[row] = response.buyOrders;
+            c.sellOrders[row] = response.sellOrders;
+            c.buyOutliers[row] = response.buyOutliers;
+            c.sellOutliers[row] = response.sellOutliers;
+            c.buyThreshold[row] = response.buyThreshold;
+            c.sellThreshold[row] = response.sellThreshold;
+            c.buyAvgFivePercent[row] = response.buyAvgFivePercent;
+            c.sellAvgFivePercent[row] = response.sellAvgFivePercent;
+            c.maxBuy[row] = response.maxBuy;
+            c.minSell[row] = response.minSell;
+            c.validators[row] = validators.isEmpty() ? null : validators;
+            return row;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int insert(long key) {
+        if (size >= maxEntries) {
+            evictOne();
+        }
+        if ((size + 1) * 2 > slots.key.length) {
+            rehash(slots.key.length * 2);
+        }
+        int row;
+        if (freeCount > 0) {
+            row = freeRows[--freeCount];
+        } else {
+            if (highWater == columns.key.length) {
+                columns = columns.copy(highWater * 2, highWater);
+            }
+            row = highWater++;
+        }
+        size++;
+        columns.key[row] = key;
+        place(slots, key, row);
+        return row;
+    }
+
+    private void evictOne() {
+        Columns c = columns;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int victim = -1;
+        for (int samples = 0, tries = 0; samples < EVICTION_SAMPLES && tries < 8 * EVICTION_SAMPLES; tries++) {
+            int row = random.nextInt(highWater);
+            if (c.key[row] == EMPTY) continue;
+            samples++;
+            if (victim < 0 || c.lastAccess[row] < c.lastAccess[victim]) victim = row;
+        }
+        if (victim < 0) {
+            for (victim = 0; c.key[victim] == EMPTY; victim++) ;
+        }
+        remove(victim);
+        evictions++;
+    }
+
+    /**
+     * Removes every entry that expired at or before the given time.
+     *
+     * @return the number of entries removed
+     */
+    public int removeExpired(long nowEpochSecond) {
+        long stamp = lock.writeLock();
+        try {
+            Columns c = columns;
+            int removed = 0;
+            for (int row = 0; row < highWater; row++) {
+                if (c.key[row] != EMPTY && c.expiresAt[row] <= nowEpochSecond) {
+                    remove(row);
+                    removed++;
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void remove(int row) {
+        Columns c = columns;
+        long key = c.key[row];
+        long[] keys = slots.key;
+        int[] rows = slots.row;
+        int mask = keys.length - 1;
+        int hole = hash(key, mask);
+        while (keys[hole] != key) {
+            hole = (hole + 1) & mask;
+        }
+        // backward-shift deletion keeps every probe chain free of gaps
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(keys[next], mask);
+            boolean reachable = hole <= next ? home > hole && home <= next : home > hole || home <= next;
+            if (reachable) continue;
+            keys[hole] = keys[next];
+            rows[hole] = rows[next];
+            hole = next;
+        }
+        keys[hole] = EMPTY;
+
+        c.key[row] = EMPTY;
+        c.validators[row] = null;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+        size--;
+        removalListener.removed((int) (key >>> 32), (int) key);
+    }
+
+    private static void place(Slots slots, long key, int row) {
+        int mask = slots.key.length - 1;
+        int slot = hash(key, mask);
+        while (slots.key[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        slots.key[slot] = key;
+        slots.row[slot] = row;
+    }
+
+    private void rehash(int capacity) {
+        Slots rehashed = new Slots(capacity);
+        for (int i = 0; i < slots.key.length; i++) {
+            if (slots.key[i] != EMPTY) place(rehashed, slots.key[i], slots.row[i]);
+        }
+        slots = rehashed;
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            Arrays.fill(slots.key, EMPTY);
+            Arrays.fill(columns.key, EMPTY);
+            Arrays.fill(columns.validators, null);
+            size = 0;
+            highWater = 0;
+            freeCount = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int regionId(int row) {
+        return (int) (columns.key[row] >>> 32);
+    }
+
+    public int typeId(int row) {
+        return (int) columns.key[row];
+    }
+
+    public long expiresAt(int row) {
+        return columns.expiresAt[row];
+    }
+
+    public long lastAccess(int row) {
+        return columns.lastAccess[row];
+    }
+
+    public long buyVolume(int row) {
+        return columns.buyVolume[row];
+    }
+
+    public long sellVolume(int row) {
+        return columns.sellVolume[row];
+    }
+
+    public long buyOrders(int row) {
+        return columns.buyOrders[row];
+    }
+
+    public long sellOrders(int row) {
+        return columns.sellOrders[row];
+    }
+
+    public long buyOutliers(int row) {
+        return columns.buyOutliers[row];
+    }
+
+    public long sellOutliers(int row) {
+        return columns.sellOutliers[row];
+    }
+
+    public double buyThreshold(int row) {
+        return columns.buyThreshold[row];
+    }
+
+    public double sellThreshold(int row) {
+        return columns.sellThreshold[row];
+    }
+
+    public double buyAvgFivePercent(int row) {
+        return columns.buyAvgFivePercent[row];
+    }
+
+    public double sellAvgFivePercent(int row) {
+        return columns.sellAvgFivePercent[row];
+    }
+
+    public double maxBuy(int row) {
+        return columns.maxBuy[row];
+    }
+
+    public double minSell(int row) {
+        return columns.minSell[row];
+    }
+
+    private Cache.APIResponse toResponse(int row) {
+        Columns c = columns;
+        Cache.APIResponse response = new Cache.APIResponse();
+        response.buyVolume = c.buyVolume[row];
+        response.sellVolume = c.sellVolume[row];
+        response.buyOrders = c.buyOrders[row];
+        response.sellOrders = c.sellOrders[row];
+        response.buyOutliers = c.buyOutliers[row];
+        response.sellOutliers = c.sellOutliers[row];
+        response.buyThreshold = c.buyThreshold[row];
+        response.sellThreshold = c.sellThreshold[row];
+        response.buyAvgFivePercent = c.buyAvgFivePercent[row];
+        response.sellAvgFivePercent = c.sellAvgFivePercent[row];
+        response.maxBuy = c.maxBuy[row];
+        response.minSell = c.minSell[row];
+        return response;
+    }
+}
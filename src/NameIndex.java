@@ -0,0 +1,158 @@
+import java.util.*;
+
+/**
+ * Case-insensitive index from item names to type ids, looked up straight from a range of a pasted text so that
+ * resolving a line allocates nothing.
+ * <p>
+ * The names are kept lower-cased in one sorted array. A lookup is a binary search comparing characters in place;
+ * names sharing a prefix are adjacent, which is what {@link #suggest} uses to find completions.
+ */
+public final class NameIndex {
+    private static final int MAX_EDITS = 2;
+
+    private final String[] keys;
+    private final String[] names;
+    private final int[] typeIds;
+
+    private NameIndex(String[] keys, String[] names, int[] typeIds) {
+        this.keys = keys;
+        this.names = names;
+        this.typeIds = typeIds;
+    }
+
+    /**
+     * Of names that only differ in case, or that several types share, the last one in iteration order wins, as it
+     * does in a map filled in that order.
+     */
+    public static NameIndex of(Map<Integer, String> idToName) {
+        int[] typeIds = new int[idToName.size()];
+        String[] names = new String[typeIds.length];
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : idToName.entrySet()) {
+            typeIds[i] = entry.getKey();
+            names[i++] = entry.getValue();
+        }
+        return of(typeIds, names);
+    }
+
+    /**
+     * Same as {@link #of(Map)}, over parallel columns in iteration order.
+     */
+    public static NameIndex of(int[] ids, String[] allNames) {
+        Map<String, Integer> byKey = HashMap.newHashMap(allNames.length);
+        Map<String, String> nameOfKey = HashMap.newHashMap(allNames.length);
+        for (int i = 0; i < allNames.length; i++) {
+            String name = allNames[i];
+            if (name == null || name.isEmpty()) continue;
+            String key = lowerCase(name);
+            byKey.put(key, ids[i]);
+            nameOfKey.put(key, name);
+        }
+        String[] keys = byKey.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        String[] names = new String[keys.length];
+        int[] typeIds = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            names[i] = nameOfKey.get(keys[i]);
+            typeIds[i] = byKey.get(keys[i]);
+        }
+        return new NameIndex(keys, names, typeIds);
+    }
+
+    private static String lowerCase(CharSequence s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(s.charAt(i));
+        return new String(chars);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public int find(CharSequence name) {
+        return find(name, 0, name.length());
+    }
+
+    /**
+     * @return the type id of the name in {@code text[from, to)}, ignoring case, or -1
+     */
+    public int find(CharSequence text, int from, int to) {
+        int i = search(text, from, to);
+        return i >= 0 ? typeIds[i] : -1;
+    }
+
+    /**
+     * @return the index of the key, or {@code -(insertion point) - 1}
+     */
+    private int search(CharSequence text, int from, int to) {
+        int lo = 0;
+        int hi = keys.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(keys[mid], text, from, to);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private static int compare(String key, CharSequence text, int from, int to) {
+        int n = Math.min(key.length(), to - from);
+        for (int i = 0; i < n; i++) {
+            int c = key.charAt(i) - Character.toLowerCase(text.charAt(from + i));
+            if (c != 0) return c;
+        }
+        return key.length() - (to - from);
+    }
+
+    /**
+     * Names close to one that was not found: first those it is a prefix of, then those within two edits of it.
+     */
+    public List<String> suggest(CharSequence name, int max) {
+        String key = lowerCase(name);
+        Set<String> suggestions = new LinkedHashSet<>();
+        int i = search(key, 0, key.length());
+        for (int k = i >= 0 ? i : -i - 1; k < keys.length && suggestions.size() < max && keys[k].startsWith(key); k++) {
+            suggestions.add(names[k]);
+        }
+        if (suggestions.size() >= max) return List.copyOf(suggestions);
+
+        // closest first, then alphabetically
+        List<int[]> close = new ArrayList<>();
+        int[] row = new int[key.length() + 1];
+        int[] previous = new int[key.length() + 1];
+        for (int k = 0; k < keys.length; k++) {
+            if (Math.abs(keys[k].length() - key.length()) > MAX_EDITS) continue;
+            int distance = editDistance(key, keys[k], row, previous);
+            if (distance <= MAX_EDITS) close.add(new int[]{distance, k});
+        }
+        close.sort(Comparator.<int[]>comparingInt(c -> c[0]).thenComparingInt(c -> c[1]));
+        for (int[] c : close) {
+            if (suggestions.size() >= max) break;
+            suggestions.add(names[c[1]]);
+        }
+        return List.copyOf(suggestions);
+    }
+
+    /**
+     * Levenshtein distance, giving up with {@code MAX_EDITS + 1} once every alignment exceeds {@link #MAX_EDITS}.
+     */
+    private static int editDistance(String a, String b, int[] row, int[] previous) {
+        for (int i = 0; i <= a.length(); i++) previous[i] = i;
+        for (int j = 1; j <= b.length(); j++) {
+            row[0] = j;
+            int best = row[0];
+            for (int i = 1; i <= a.length(); i++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                row[i] = Math.min(Math.min(row[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+                best = Math.min(best, row[i]);
+            }
+            if (best > MAX_EDITS) return MAX_EDITS + 1;
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        return previous[a.length()];
+    }
+}
@@ -0,0 +1,354 @@
+import com.google.gson.stream.JsonReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Computes the stats of every type from a full order dump, instead of one market request per type.
+ * <p>
+ * The dump is a CSV file with a header row or a JSON array of order objects, optionally gzipped (by file name:
+ * {@code .csv}, {@code .json}, plus {@code .gz}). The fields read are {@code type_id}, {@code is_buy_order},
+ * {@code price}, {@code volume_remain} and, if present, {@code region_id}; any others are skipped. CSV fields may be
+ * quoted.
+ * <p>
+ * Outliers are orders priced too far from the best order of their side to be meant seriously: buy orders below a
+ * tenth of the highest buy, and sell orders above ten times the lowest sell. These cut-offs are reported as
+ * {@code buyThreshold} and {@code sellThreshold}. Outliers only count towards {@code buyOutliers} and
+ * {@code sellOutliers}; volumes, order counts and the 5% averages exclude them. The 5% average is the volume
+ * weighted price of the best orders that together make up 5% of the side's volume.
+ * <p>
+ * The file is streamed twice and orders are aggregated as they are read, so neither the file nor its orders are
+ * held in memory. The first pass finds the best price and total volume of every side, which fixes the outlier
+ * cut-offs. The second counts the orders and keeps, per side, only the best orders that can still be part of the
+ * best 5% of volume.
+ */
+public final class OrderDumpIngest {
+    static final double OUTLIER_FACTOR = 10;
+    static final double AVERAGE_FRACTION = 0.05;
+
+    private interface OrderConsumer {
+        void accept(int regionId, int typeId, boolean buy, double price, long volume);
+    }
+
+    private final int defaultRegionId;
+    private final Map<Long, Orders> orders = new HashMap<>();
+    private long read;
+
+    private OrderDumpIngest(int defaultRegionId) {
+        this.defaultRegionId = defaultRegionId;
+    }
+
+    /**
+     * Reads the dump and passes the stats of every (region, type) with orders to the consumer.
+     *
+     * @param defaultRegionId region of the orders if the dump has no {@code region_id}
+     * @param expiresAt       expiry given to all stats
+     * @return how many orders were read
+     */
+    public static long ingest(Path dump, int defaultRegionId, Instant expiresAt, MarketStore.RecordConsumer consumer) throws IOException {
+        OrderDumpIngest ingest = new OrderDumpIngest(defaultRegionId);
+        ingest.read(dump, (regionId, typeId, buy, price, volume) -> {
+            Orders typeOrders = ingest.orders.computeIfAbsent(MarketTable.key(regionId, typeId), _ -> new Orders());
+            (buy ? typeOrders.buy : typeOrders.sell).survey(price, volume);
+        });
+        for (Orders typeOrders : ingest.orders.values()) {
+            typeOrders.buy.fixCutOffs();
+            typeOrders.sell.fixCutOffs();
+        }
+        ingest.read(dump, (regionId, typeId, buy, price, volume) -> {
+            Orders typeOrders = ingest.orders.get(MarketTable.key(regionId, typeId));
+            if (typeOrders == null) throw new IllegalStateException("The dump changed while it was read: " + dump);
+            (buy ? typeOrders.buy : typeOrders.sell).add(price, volume);
+            ingest.read++;
+        });
+        Debug.print("Read " + ingest.read + " orders of " + ingest.orders.size() + " types from " + dump);
+        for (Map.Entry<Long, Orders> entry : ingest.orders.entrySet()) {
+            long key = entry.getKey();
+            consumer.accept((int) (key >>> 32), (int) key, expiresAt, entry.getValue().stats());
+        }
+        return ingest.read;
+    }
+
+    private void read(Path dump, OrderConsumer consumer) throws IOException {
+        String name = dump.getFileName().toString().toLowerCase(Locale.ROOT);
+        InputStream in = new BufferedInputStream(Files.newInputStream(dump), 1 << 16);
+        if (name.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+            name = name.substring(0, name.length() - 3);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".json")) {
+                readJson(reader, consumer);
+            } else if (name.endsWith(".csv")) {
+                readCsv(new BufferedReader(reader, 1 << 16), consumer);
+            } else {
+                throw new IOException("Not a .csv or .json order dump: " + dump);
+            }
+        }
+    }
+
+    private void readCsv(BufferedReader reader, OrderConsumer consumer) throws IOException {
+        String header = reader.readLine();
+        if (header == null) return;
+        List<String> columns = new ArrayList<>();
+        split(header, columns);
+        int typeColumn = column(columns, "type_id");
+        int buyColumn = column(columns, "is_buy_order");
+        int priceColumn = column(columns, "price");
+        int volumeColumn = column(columns, "volume_remain");
+        int regionColumn = columns.indexOf("region_id");
+
+        List<String> fields = new ArrayList<>(columns.size());
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            split(line, fields);
+            while (fields.size() < columns.size()) fields.add("");
+            try {
+                consumer.accept(regionColumn < 0 ? defaultRegionId : Integer.parseInt(fields.get(regionColumn)),
+                        Integer.parseInt(fields.get(typeColumn)),
+                        parseBoolean(fields.get(buyColumn)),
+                        Double.parseDouble(fields.get(priceColumn)),
+                        Long.parseLong(fields.get(volumeColumn)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed order: " + line, e);
+            }
+        }
+    }
+
+    /**
+     * Splits a CSV line into its fields, unquoting quoted ones; a quote inside a quoted field is written twice.
+     */
+    static void split(String line, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    private static int column(List<String> columns, String name) throws IOException {
+        int column = columns.indexOf(name);
+        if (column < 0) throw new IOException("Order dump has no " + name + " column");
+        return column;
+    }
+
+    private static boolean parseBoolean(String field) {
+        return field.equalsIgnoreCase("true") || field.equals("1");
+    }
+
+    private void readJson(Reader reader, OrderConsumer consumer) throws IOException {
+        try (JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                int regionId = defaultRegionId;
+                int typeId = -1;
+                boolean buy = false;
+                double price = Double.NaN;
+                long volume = -1;
+                json.beginObject();
+                while (json.hasNext()) {
+                    switch (json.nextName()) {
+                        case "region_id" -> regionId = json.nextInt();
+                        case "type_id" -> typeId = json.nextInt();
+                        case "is_buy_order" -> buy = json.nextBoolean();
+                        case "price" -> price = json.nextDouble();
+                        case "volume_remain" -> volume = json.nextLong();
+                        default -> json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (typeId < 0 || Double.isNaN(price) || volume < 0) {
+                    throw new IOException("Order without type_id, price or volume_remain at " + json.getPath());
+                }
+                consumer.accept(regionId, typeId, buy, price, volume);
+            }
+            json.endArray();
+        }
+    }
+
+    private static final class Orders {
+        final Side buy = new Side(true);
+        final Side sell = new Side(false);
+
+        Cache.APIResponse stats() {
+            Cache.APIResponse response = new Cache.APIResponse();
+            if (buy.orders > 0) {
+                response.maxBuy = buy.best;
+                response.buyThreshold = buy.threshold;
+                response.buyOrders = buy.orders;
+                response.buyOutliers = buy.outliers;
+                response.buyVolume = buy.volume;
+                response.buyAvgFivePercent = buy.bestAverage();
+            }
+            if (sell.orders > 0) {
+                response.minSell = sell.best;
+                response.sellThreshold = sell.threshold;
+                response.sellOrders = sell.orders;
+                response.sellOutliers = sell.outliers;
+                response.sellVolume = sell.volume;
+                response.sellAvgFivePercent = sell.bestAverage();
+            }
+            return response;
+        }
+    }
+
+    /**
+     * One side of a type's market. The first pass {@link #survey surveys} every order, the second {@link #add adds}
+     * it: outliers are only counted, and of the others only the best are kept, in a heap with the worst on top.
+     */
+    private static final class Side {
+        final boolean buy;
+        // first pass
+        double best = Double.NaN;
+        long totalVolume;
+        // fixed between the passes
+        double threshold;
+        double keptVolume;
+        // second pass
+        long orders;
+        long outliers;
+        long volume;
+        double[] price = new double[4];
+        long[] orderVolume = new long[4];
+        int size;
+        long heapVolume;
+
+        Side(boolean buy) {
+            this.buy = buy;
+        }
+
+        private boolean better(double a, double b) {
+            return buy ? a > b : a < b;
+        }
+
+        void survey(double orderPrice, long orderVolume) {
+            if (Double.isNaN(best) || better(orderPrice, best)) best = orderPrice;
+            totalVolume += orderVolume;
+        }
+
+        /**
+         * Outliers only shrink the volume the 5% is taken of, so no order worse than the best 5% of all orders is
+         * ever needed.
+         */
+        void fixCutOffs() {
+            threshold = buy ? best / OUTLIER_FACTOR : best * OUTLIER_FACTOR;
+            keptVolume = Math.max(1, totalVolume * AVERAGE_FRACTION);
+        }
+
+        void add(double orderPrice, long orderVolume) {
+            if (buy ? orderPrice < threshold : orderPrice > threshold) {
+                outliers++;
+                return;
+            }
+            orders++;
+            volume += orderVolume;
+            push(orderPrice, orderVolume);
+            // the worst kept order is dropped once the better ones cover the 5% without it
+            while (heapVolume - this.orderVolume[0] >= keptVolume) pop();
+        }
+
+        private void push(double orderPrice, long volumeOfOrder) {
+            if (size == price.length) {
+                price = Arrays.copyOf(price, size * 2);
+                orderVolume = Arrays.copyOf(orderVolume, size * 2);
+            }
+            price[size] = orderPrice;
+            orderVolume[size] = volumeOfOrder;
+            heapVolume += volumeOfOrder;
+            for (int i = size++; i > 0 && better(price[(i - 1) / 2], price[i]); i = (i - 1) / 2) {
+                swap(i, (i - 1) / 2);
+            }
+        }
+
+        private void pop() {
+            heapVolume -= orderVolume[0];
+            swap(0, --size);
+            for (int i = 0; ; ) {
+                int worst = i;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                    if (better(price[worst], price[child])) worst = child;
+                }
+                if (worst == i) break;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        /**
+         * The volume weighted price of the best orders making up 5% of the volume; consumes the kept orders.
+         */
+        double bestAverage() {
+            sort(0, size - 1);
+            if (buy) {
+                for (int i = 0, j = size - 1; i < j; i++, j--) swap(i, j);
+            }
+            double wanted = Math.max(1, volume * AVERAGE_FRACTION);
+            double taken = 0;
+            double value = 0;
+            for (int i = 0; i < size && taken < wanted; i++) {
+                double take = Math.min(orderVolume[i], wanted - taken);
+                taken += take;
+                value += take * price[i];
+            }
+            return taken == 0 ? 0 : value / taken;
+        }
+
+        private void sort(int lo, int hi) {
+            while (hi - lo > 16) {
+                double pivot = price[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (price[i] < pivot) i++;
+                    while (price[j] > pivot) j--;
+                    if (i <= j) swap(i++, j--);
+                }
+                // recurse into the smaller half to bound the stack
+                if (j - lo < hi - i) {
+                    sort(lo, j);
+                    lo = i;
+                } else {
+                    sort(i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && price[j - 1] > price[j]; j--) swap(j - 1, j);
+            }
+        }
+
+        private void swap(int i, int j) {
+            double p = price[i];
+            price[i] = price[j];
+            price[j] = p;
+            long v = orderVolume[i];
+            orderVolume[i] = orderVolume[j];
+            orderVolume[j] = v;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Shrinks the reprocessing LP before it reaches GLOP.
+ */
+public final class Presolve {
+    private static final double EPSILON = 1e-9;
+
+    private Presolve() {
+    }
+
+    /**
+     * @return the rows of the matrix that yield at least one of the resources, in ascending order
+     */
+    public static int[] rowsYielding(YieldMatrix yields, int[] resourceTypeIds) {
+        boolean[] keep = new boolean[yields.rows()];
+        int kept = 0;
+        for (int typeId : resourceTypeIds) {
+            int m = yields.types.indexOf(typeId);
+            if (m < 0) continue;
+            for (int k = yields.materialRowStart[m]; k < yields.materialRowStart[m + 1]; k++) {
+                int row = yields.materialRows[k];
+                if (!keep[row]) kept++;
+                keep[row] = true;
+            }
+        }
+        int[] rows = new int[kept];
+        for (int row = 0, i = 0; row < keep.length; row++) {
+            if (keep[row]) rows[i++] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Marks every column that is strictly dominated: some other column {@code j} covers its yield of every resource
+     * when bought {@code s} times, for less than its own cost. Columns with a cost of 0 or less are not buyable and
+     * neither dominate nor are marked.
+     *
+     * @param colStart the yields of column {@code c} are entries {@code colStart[c] until colStart[c + 1]} of
+     *                 {@code colResource} and {@code colYield}
+     * @return the number of columns marked
+     */
+    public static int markDominated(int[] colStart, int[] colResource, double[] colYield, double[] cost, int resources, boolean[] dominated) {
+        int columns = cost.length;
+        double[] yieldOfJ = new double[resources];
+        int marked = 0;
+        Arrays.fill(dominated, false);
+        for (int j = 0; j < columns; j++) {
+            if (cost[j] <= 0 || dominated[j]) continue;
+            Arrays.fill(yieldOfJ, 0);
+            for (int k = colStart[j]; k < colStart[j + 1]; k++) {
+                yieldOfJ[colResource[k]] += colYield[k];
+            }
+            for (int i = 0; i < columns; i++) {
+                if (i == j || cost[i] <= 0 || dominated[i] || colStart[i] == colStart[i + 1]) continue;
+                double scale = 0;
+                for (int k = colStart[i]; k < colStart[i + 1] && scale < Double.POSITIVE_INFINITY; k++) {
+                    if (colYield[k] <= 0) continue;
+                    double have = yieldOfJ[colResource[k]];
+                    scale = have <= 0 ? Double.POSITIVE_INFINITY : Math.max(scale, colYield[k] / have);
+                }
+                if (scale * cost[j] < cost[i] * (1 - EPSILON)) {
+                    dominated[i] = true;
+                    marked++;
+                }
+            }
+        }
+        return marked;
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Prices and volumes of every type in a {@link TypeIndex}, resolved once per solve.
+ */
+public final class PriceVector {
+    public final TypeIndex types;
+    public final int regionId;
+    public final double[] price;
+    public final double[] volume;
+
+    private PriceVector(TypeIndex types, int regionId, double[] price, double[] volume) {
+        this.types = types;
+        this.regionId = regionId;
+        this.price = price;
+        this.volume = volume;
+    }
+
+    /**
+     * Resolves every type in the snapshot's yield matrix.
+     */
+    public static PriceVector snapshot(SdeSnapshot sde, int regionId, SimpleSolver.PriceCalculator priceCalculator) throws IOException {
+        boolean[] all = new boolean[sde.yields().types.size()];
+        Arrays.fill(all, true);
+        return snapshot(sde, all, regionId, priceCalculator);
+    }
+
+    /**
+     * Resolves only the types marked in {@code include}; all other prices are left at 0. Volumes come from the
+     * same SDE snapshot as the types, so a reload during the solve cannot mix them.
+     */
+    public static PriceVector snapshot(SdeSnapshot sde, boolean[] include, int regionId, SimpleSolver.PriceCalculator priceCalculator) throws IOException {
+        TypeIndex types = sde.yields().types;
+        double[] price = new double[types.size()];
+        double[] volume = new double[types.size()];
+        for (int i = 0; i < types.size(); i++) {
+            int typeId = types.typeId(i);
+            volume[i] = sde.volume(typeId);
+            if (!include[i]) continue;
+            price[i] = Cache.price(typeId, regionId, priceCalculator);
+        }
+        return new PriceVector(types, regionId, price, volume);
+    }
+}
@@ -0,0 +1,224 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.ortools.Loader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the SDE, the market cache and the LP models loaded and answers queries over HTTP on the loopback interface,
+ * one virtual thread per request:
+ * <ul>
+ *     <li>{@code GET /reprocess?resources=Tritanium,Pyerite}, or {@code POST /reprocess} with a pasted list as the
+ *     body: the items most profitable to reprocess into the resources. Optional parameters are {@code region},
+ *     {@code price} (buy, sell, max-buy, min-sell), {@code reprocessing}, {@code costPerM3} and {@code top}.</li>
+ *     <li>{@code POST /lp} with {@code {"required": {"Tritanium": 1e7}, "region": ..., "quota": ...,
+ *     "costPerM3": ...}}: the cheapest items to buy and reprocess for the required quantities, with how many items
+ *     the presolve pruned and how many columns it found dominated.</li>
+ *     <li>{@code GET /stats}: the market cache statistics.</li>
+ * </ul>
+ * Answers are JSON; a bad query gets a 400 with {@code {"error": ...}}. A {@code /reprocess} answer computed while
+ * some market stats could not be fetched carries a {@code Warning} header saying how many; an LP with unfetched
+ * prices fails with a 500. An LP that has no optimum answers with its
+ * status and no {@code cost}.
+ */
+public class QueryServer implements AutoCloseable {
+    private static final int DEFAULT_REGION = 10000002; // The Forge
+    private static final Duration SDE_RELOAD_INTERVAL = Duration.ofDays(1);
+
+    private final Gson gson = new Gson();
+    // keeps its last evaluation, so repeated queries for the same resources skip re-evaluating every item
+    private final SimpleSolver solver = new SimpleSolver();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static class BadRequest extends Exception {
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    private interface Handler {
+        Object handle(HttpExchange exchange, Map<String, String> query) throws Exception;
+    }
+
+    /**
+     * Starts serving; {@link Cache} must be initialized.
+     *
+     * @param port 0 picks a free port
+     */
+    public QueryServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/reprocess", exchange -> serve(exchange, this::reprocess));
+        server.createContext("/lp", exchange -> serve(exchange, this::lp));
+        server.createContext("/stats", exchange -> serve(exchange, (e, query) -> Cache.marketCacheStats()));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Loads everything once and serves until killed: {@code QueryServer [port]}. The SDE is reloaded daily, so a
+     * new dump is picked up without a restart.
+     */
+    static void main(String[] args) throws Exception {
+        Loader.loadNativeLibraries();
+        Cache.initialize();
+        Cache.setSdeReloadInterval(SDE_RELOAD_INTERVAL);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Cache.save();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }));
+        QueryServer server = new QueryServer(args.length > 0 ? Integer.parseInt(args[0]) : 8090);
+        System.out.println("Serving queries at " + server.baseUrl());
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            int status = 200;
+            byte[] body;
+            try {
+                // serialized here, so an answer Gson cannot write still gets an error response
+                body = json(handler.handle(exchange, query(exchange)));
+            } catch (BadRequest | NumberFormatException | JsonParseException e) {
+                status = 400;
+                body = json(Map.of("error", String.valueOf(e.getMessage())));
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = 500;
+                body = json(Map.of("error", e.toString()));
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private byte[] json(Object answer) {
+        return gson.toJson(answer).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return query;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private record Item(int typeId, String name, double profit, double margin, double volume, int region) {
+    }
+
+    private Object reprocess(HttpExchange exchange, Map<String, String> query) throws Exception {
+        String list;
+        if (exchange.getRequestMethod().equals("POST")) {
+            list = body(exchange);
+        } else if (query.containsKey("resources")) {
+            list = query.get("resources").replace(',', '\n');
+        } else {
+            throw new BadRequest("GET /reprocess needs resources=name,name,...");
+        }
+        SdeSnapshot sde = Cache.sde();
+        InventoryParser.Result parsed = InventoryParser.parse(list, sde.nameIndex());
+        if (!parsed.errors().isEmpty()) throw new BadRequest(String.join("; ", parsed.errors()));
+
+        SimpleSolver.PriceCalculator priceCalculator = SimpleSolver.PriceCalculator.named(query.getOrDefault("price", "buy"));
+        if (priceCalculator == null) throw new BadRequest("Unknown price: " + query.get("price"));
+        AtomicInteger failedFetches = new AtomicInteger();
+        List<ReprocessResult> results = solver.results(parsed.typeIdList(),
+                Integer.parseInt(query.getOrDefault("region", String.valueOf(DEFAULT_REGION))),
+                Float.parseFloat(query.getOrDefault("reprocessing", "0.5")),
+                Float.parseFloat(query.getOrDefault("costPerM3", "450")),
+                priceCalculator, new SimpleSolver.ProgressListener() {
+                    @Override
+                    public void progress(int done, int total) {
+                    }
+
+                    @Override
+                    public void failed(int typeId, int regionId, IOException e) {
+                        failedFetches.incrementAndGet();
+                    }
+                }, Integer.parseInt(query.getOrDefault("top", "100")));
+        if (failedFetches.get() > 0) {
+            exchange.getResponseHeaders().set("Warning",
+                    "199 - \"" + failedFetches.get() + " market fetches failed; those items are priced as if they had no orders\"");
+        }
+
+        List<Item> items = new ArrayList<>(results.size());
+        for (ReprocessResult result : results) {
+            items.add(new Item(result.typeId(), sde.name(result.typeId()), result.profit(), result.margin(), result.volume(), result.region()));
+        }
+        return items;
+    }
+
+    private record Bought(int typeId, String name, double quantity) {
+    }
+
+    /**
+     * @param cost             null unless the LP was solved, so Gson, which rejects NaN, can write it
+     * @param prunedRows       items left out of the LP as they yield none of the resources
+     * @param dominatedColumns items not bought this solve as another was strictly cheaper
+     */
+    private record LpAnswer(String status, Double cost, List<Bought> buy, int prunedRows, int dominatedColumns) {
+    }
+
+    private Object lp(HttpExchange exchange, Map<String, String> query) throws Exception {
+        if (!exchange.getRequestMethod().equals("POST")) throw new BadRequest("POST the LP query as JSON");
+        JsonObject request = gson.fromJson(body(exchange), JsonObject.class);
+        if (request == null || !request.has("required")) throw new BadRequest("The LP query needs \"required\"");
+
+        SdeSnapshot sde = Cache.sde();
+        Map<Integer, Double> required = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : request.getAsJsonObject("required").entrySet()) {
+            int typeId = sde.nameIndex().find(entry.getKey());
+            if (typeId < 0) throw new BadRequest("Unknown item '" + entry.getKey() + "'");
+            required.put(typeId, entry.getValue().getAsDouble());
+        }
+        int region = request.has("region") ? request.get("region").getAsInt() : DEFAULT_REGION;
+        double quota = request.has("quota") ? request.get("quota").getAsDouble() : 0.5;
+        double costPerM3 = request.has("costPerM3") ? request.get("costPerM3").getAsDouble() : 300;
+
+        ReprocessingModel.Solution solution = Solver.solve(required, region, quota, costPerM3);
+        List<Bought> buy = new ArrayList<>();
+        for (int i = 0; i < solution.typeIds().length; i++) {
+            buy.add(new Bought(solution.typeIds()[i], sde.name(solution.typeIds()[i]), solution.quantities()[i]));
+        }
+        return new LpAnswer(solution.status().toString(), Double.isFinite(solution.cost()) ? solution.cost() : null, buy,
+                solution.prunedRows(), solution.dominated());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+}
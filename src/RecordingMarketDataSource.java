@@ -0,0 +1,44 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Passes fetches through to another source and writes every quote it returns to a snapshot in the
+ * {@link MarketStore} format, for {@link ReplayMarketDataSource} to serve later. Recording into an existing
+ * snapshot adds to it; the latest quote of a type wins.
+ */
+public class RecordingMarketDataSource implements MarketDataSource {
+    private final MarketDataSource delegate;
+    private final MarketStore snapshot;
+
+    public RecordingMarketDataSource(MarketDataSource delegate, Path snapshot) throws IOException {
+        this.delegate = delegate;
+        this.snapshot = MarketStore.open(snapshot);
+    }
+
+    @Override
+    public Quote fetch(int regionId, int typeId) throws IOException {
+        return fetch(regionId, typeId, null);
+    }
+
+    @Override
+    public Quote fetch(int regionId, int typeId, Quote held) throws IOException {
+        Quote quote = delegate.fetch(regionId, typeId, held);
+        if (quote != null) {
+            snapshot.append(regionId, typeId, quote.expiresAt(), quote.response());
+        }
+        return quote;
+    }
+
+    /**
+     * Compacts the snapshot, so it holds one record per type, and closes the delegate.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            snapshot.compact();
+            snapshot.close();
+        } finally {
+            delegate.close();
+        }
+    }
+}
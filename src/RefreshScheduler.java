@@ -0,0 +1,95 @@
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Refreshes market entries in the background, in order of when they are due.
+ * <p>
+ * Entries are queued by due time; a single daemon thread takes them off the queue once due and hands them to the
+ * refresher on a virtual thread. At most one request per (region, type) is pending at a time.
+ */
+public final class RefreshScheduler implements AutoCloseable {
+    public interface Refresher {
+        /**
+         * @param scheduledAtMillis when the refresh was requested, to let the refresher skip entries nobody read since
+         */
+        void refresh(int regionId, int typeId, long scheduledAtMillis) throws Exception;
+    }
+
+    private record Refresh(long key, long dueAtMillis, long scheduledAtMillis) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueAtMillis, ((Refresh) o).dueAtMillis);
+        }
+    }
+
+    private final DelayQueue<Refresh> queue = new DelayQueue<>();
+    private final Map<Long, Refresh> pending = new ConcurrentHashMap<>();
+    private final Refresher refresher;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread worker;
+
+    public RefreshScheduler(Refresher refresher, int concurrency) {
+        this.refresher = refresher;
+        this.permits = new Semaphore(concurrency);
+        worker = Thread.ofPlatform().daemon().name("market-refresh").start(this::run);
+    }
+
+    /**
+     * Queues a refresh at the given time, unless one is already pending for the entry.
+     */
+    public void schedule(int regionId, int typeId, long dueAtMillis) {
+        enqueue(new Refresh(MarketTable.key(regionId, typeId), dueAtMillis, System.currentTimeMillis()));
+    }
+
+    private void enqueue(Refresh refresh) {
+        if (pending.putIfAbsent(refresh.key, refresh) == null) {
+            queue.add(refresh);
+        }
+    }
+
+    /**
+     * Queues an immediate refresh that the refresher should not skip.
+     */
+    public void refreshNow(int regionId, int typeId) {
+        enqueue(new Refresh(MarketTable.key(regionId, typeId), System.currentTimeMillis(), 0));
+    }
+
+    public int pending() {
+        return pending.size();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Refresh refresh = queue.take();
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        pending.remove(refresh.key, refresh);
+                        refresher.refresh((int) (refresh.key >>> 32), (int) refresh.key, refresh.scheduledAtMillis);
+                    } catch (Exception e) {
+                        Debug.print("Background refresh failed: " + e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void close() {
+        worker.interrupt();
+        executor.shutdownNow();
+        queue.clear();
+        pending.clear();
+    }
+}
@@ -0,0 +1,44 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves a snapshot written by {@link RecordingMarketDataSource} from memory. Types missing from the snapshot
+ * have no stats, as if the market had none.
+ * <p>
+ * Recorded expiry times are long past when replaying, so every quote instead expires a fixed time after it is
+ * served.
+ */
+public class ReplayMarketDataSource implements MarketDataSource {
+    private final Map<Long, Cache.APIResponse> responses = new HashMap<>();
+    private final Duration ttl;
+
+    public ReplayMarketDataSource(Path snapshot) throws IOException {
+        this(snapshot, HttpMarketDataSource.DEFAULT_TTL);
+    }
+
+    public ReplayMarketDataSource(Path snapshot, Duration ttl) throws IOException {
+        this.ttl = ttl;
+        // opening a store creates a missing file, which would silently replay nothing
+        if (!Files.isRegularFile(snapshot)) throw new NoSuchFileException(snapshot.toString());
+        try (MarketStore store = MarketStore.open(snapshot)) {
+            store.forEach((regionId, typeId, expiresAt, response) -> responses.put(MarketTable.key(regionId, typeId), response));
+        }
+        Debug.print("Replaying " + responses.size() + " market stats from " + snapshot);
+    }
+
+    public int size() {
+        return responses.size();
+    }
+
+    @Override
+    public Quote fetch(int regionId, int typeId) {
+        Cache.APIResponse response = responses.get(MarketTable.key(regionId, typeId));
+        return response == null ? null : new Quote(response, Instant.now().plus(ttl));
+    }
+}
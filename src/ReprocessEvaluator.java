@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reprocessing profit of every row of a {@link YieldMatrix}, kept up to date incrementally.
+ * <p>
+ * For each row the evaluator caches the price-dependent terms: the value and volume of the wanted materials per unit
+ * of item, and the item's own price and volume. The profit is a linear function of these and of the reprocessing
+ * quota and hauling cost, so changing those two parameters costs nothing up front. A changed price only recomputes
+ * the rows that yield the material, found through the matrix's reverse index, or the row of the item itself.
+ */
+public final class ReprocessEvaluator {
+    private static final int ROWS_PER_TASK = 512;
+
+    private final YieldMatrix yields;
+    private final int regionId;
+    private final boolean[] wanted;
+    private final double[] price;
+    private final double[] volume;
+    /** Row of each type in the type index, or -1 if it is not reprocessable. */
+    private final int[] rowOfType;
+
+    private final double[] sumReprocessed;
+    private final double[] volumeReprocessed;
+    private final double[] itemPrice;
+    private final double[] itemVolume;
+
+    private volatile float reprocessing;
+    private volatile float costPerM3;
+
+    /**
+     * @param wanted marks the materials whose value counts, by index into the matrix's type index
+     * @param prices is copied; later changes go through {@link #setPrice}
+     */
+    public ReprocessEvaluator(YieldMatrix yields, boolean[] wanted, PriceVector prices, float reprocessing, float costPerM3) {
+        this.yields = yields;
+        this.regionId = prices.regionId;
+        this.wanted = wanted.clone();
+        this.price = prices.price.clone();
+        this.volume = prices.volume.clone();
+        this.reprocessing = reprocessing;
+        this.costPerM3 = costPerM3;
+
+        rowOfType = new int[yields.types.size()];
+        Arrays.fill(rowOfType, -1);
+        for (int row = 0; row < yields.rows(); row++) {
+            rowOfType[yields.rowItem[row]] = row;
+        }
+        sumReprocessed = new double[yields.rows()];
+        volumeReprocessed = new double[yields.rows()];
+        itemPrice = new double[yields.rows()];
+        itemVolume = new double[yields.rows()];
+    }
+
+    public YieldMatrix yields() {
+        return yields;
+    }
+
+    /**
+     * Computes the cached terms of every row, in parallel, reporting every profitable row to the listener.
+     *
+     * @throws CancellationException once the listener is {@link SimpleSolver.ProgressListener#cancelled cancelled}
+     */
+    public void evaluateAll(ForkJoinPool pool, SimpleSolver.ProgressListener progressListener) {
+        AtomicInteger done = new AtomicInteger();
+        pool.invoke(new EvaluateRows(0, yields.rows(), progressListener, done));
+    }
+
+    private class EvaluateRows extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final SimpleSolver.ProgressListener progressListener;
+        private final AtomicInteger done;
+
+        EvaluateRows(int from, int to, SimpleSolver.ProgressListener progressListener, AtomicInteger done) {
+            this.from = from;
+            this.to = to;
+            this.progressListener = progressListener;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EvaluateRows(from, mid, progressListener, done), new EvaluateRows(mid, to, progressListener, done));
+                return;
+            }
+            if (progressListener.cancelled()) throw new CancellationException();
+            for (int row = from; row < to; row++) {
+                evaluate(row);
+                ReprocessResult result = result(row);
+                if (result != null) progressListener.found(result);
+            }
+            progressListener.progress(done.addAndGet(to - from), yields.rows());
+        }
+    }
+
+    private void evaluate(int row) {
+        double volumeReprocessed = 0;
+        double sumReprocessed = 0;
+        for (int k = yields.rowStart[row]; k < yields.rowStart[row + 1]; k++) {
+            int material = yields.materialIdx[k];
+            if (!wanted[material]) continue;
+            double qty = yields.qtyPerUnit[k];
+            if (Debug.DEBUG) {
+                Debug.print(price[material] + " * " + qty);
+                Debug.print(Cache.getItemName(yields.types.typeId(material)) + " : " + price[material] * qty);
+            }
+            volumeReprocessed += volume[material] * qty;
+            sumReprocessed += price[material] * qty;
+        }
+        int item = yields.rowItem[row];
+        this.sumReprocessed[row] = sumReprocessed;
+        this.volumeReprocessed[row] = volumeReprocessed;
+        this.itemPrice[row] = price[item];
+        this.itemVolume[row] = volume[item];
+    }
+
+    public void setReprocessing(float reprocessing) {
+        this.reprocessing = reprocessing;
+    }
+
+    public void setCostPerM3(float costPerM3) {
+        this.costPerM3 = costPerM3;
+    }
+
+    public double price(int typeIndex) {
+        return price[typeIndex];
+    }
+
+    /**
+     * Changes the price of one type and recomputes only the rows it affects.
+     *
+     * @return the number of rows recomputed
+     */
+    public synchronized int setPrice(int typeIndex, double newPrice) {
+        if (price[typeIndex] == newPrice) return 0;
+        price[typeIndex] = newPrice;
+        int recomputed = 0;
+        if (wanted[typeIndex]) {
+            for (int k = yields.materialRowStart[typeIndex]; k < yields.materialRowStart[typeIndex + 1]; k++) {
+                evaluate(yields.materialRows[k]);
+                recomputed++;
+            }
+        }
+        int row = rowOfType[typeIndex];
+        if (row >= 0) {
+            itemPrice[row] = newPrice;
+            recomputed++;
+        }
+        return recomputed;
+    }
+
+    /**
+     * Applies every price that differs from the ones the evaluator holds.
+     *
+     * @return the number of rows recomputed
+     */
+    public int update(PriceVector prices) {
+        int recomputed = 0;
+        for (int t = 0; t < price.length; t++) {
+            recomputed += setPrice(t, prices.price[t]);
+        }
+        return recomputed;
+    }
+
+    public double itemPrice(int row) {
+        return itemPrice[row];
+    }
+
+    /**
+     * @return the row of a reprocessable item, or -1
+     */
+    public int row(int typeId) {
+        int typeIndex = yields.types.indexOf(typeId);
+        return typeIndex < 0 ? -1 : rowOfType[typeIndex];
+    }
+
+    /**
+     * @return the row as a result, or null if it is not profitable
+     */
+    public ReprocessResult result(int row) {
+        double profit = profit(row);
+        if (Double.isNaN(profit)) return null;
+        return new ReprocessResult(yields.itemTypeId(row), profit, profit / itemPrice[row], itemVolume[row], regionId);
+    }
+
+    /**
+     * @return the profit of reprocessing one unit of the item in the row, or NaN if it is not profitable
+     */
+    public double profit(int row) {
+        double sum = sumReprocessed[row] * reprocessing;
+        if (sum == 0) return Double.NaN; // doesn't reproduce to
+        if (itemPrice[row] == 0) return Double.NaN;
+
+        double hauled = sum - costPerM3 * itemVolume[row] + costPerM3 * volumeReprocessed[row];
+        if (Debug.DEBUG) {
+            Debug.print(yields.itemTypeId(row));
+            Debug.print("Only item: " + itemPrice[row]);
+            Debug.print("Post hauling: " + hauled);
+        }
+        return hauled > itemPrice[row] ? hauled - itemPrice[row] : Double.NaN;
+    }
+
+    /**
+     * Collects the most profitable rows under the current prices and parameters, in parallel.
+     */
+    public TopK top(ForkJoinPool pool, int maxResults) {
+        return pool.invoke(new CollectRows(0, yields.rows(), Math.min(maxResults, Math.max(1, yields.rows()))));
+    }
+
+    private class CollectRows extends RecursiveTask<TopK> {
+        private final int from;
+        private final int to;
+        private final int maxResults;
+
+        CollectRows(int from, int to, int maxResults) {
+            this.from = from;
+            this.to = to;
+            this.maxResults = maxResults;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                CollectRows left = new CollectRows(from, mid, maxResults);
+                left.fork();
+                TopK right = new CollectRows(mid, to, maxResults).compute();
+                return left.join().merge(right);
+            }
+            TopK best = new TopK(maxResults);
+            for (int row = from; row < to; row++) {
+                double profit = profit(row);
+                if (!Double.isNaN(profit)) best.offer(profit, yields.itemTypeId(row));
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * One item worth buying to reprocess.
+ *
+ * @param profit per unit of item, after hauling
+ * @param margin profit relative to the item's price
+ * @param volume of one unit of item, in m3
+ * @param region where the item is bought and reprocessed
+ */
+public record ReprocessResult(int typeId, double profit, double margin, double volume, int region) {
+}
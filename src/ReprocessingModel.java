@@ -0,0 +1,229 @@
+import com.google.ortools.linearsolver.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persistent GLOP model answering "what is the cheapest set of items to buy and reprocess to get the required
+ * resources", built once per (region, resource set).
+ * <p>
+ * There is one buy variable per column: every raw resource (yielding exactly itself) and every item that reprocesses
+ * into at least one of the resources. There is one constraint per resource: the reprocessed yield of everything
+ * bought must cover the requirement. Later solves only change objective coefficients, bounds and yield coefficients
+ * in place; GLOP keeps its basis between solves and warm-starts from it.
+ * <p>
+ * Before a solve following a change of costs or quota, {@link Presolve#markDominated} fixes every column that another
+ * column beats on cost per unit of yield at 0, so GLOP's own presolve drops it. Domination does not depend on the
+ * required quantities, so re-solving for other quantities skips it.
+ * <p>
+ * Not thread-safe; callers serialize access to one model.
+ */
+public final class ReprocessingModel implements AutoCloseable {
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param columns    columns in the model, after dropping items that yield none of the resources
+     * @param prunedRows items dropped because they yield none of the resources
+     * @param dominated  columns fixed at 0 for this solve because another column was strictly cheaper
+     */
+    public record Solution(MPSolver.ResultStatus status, double cost, int[] typeIds, double[] quantities, int columns, int prunedRows, int dominated) {
+    }
+
+    private final YieldMatrix yields;
+    private final MPSolver solver;
+    private final MPSolverParameters parameters = new MPSolverParameters();
+    private final int[] resources;
+    private final MPConstraint[] need;
+    private final MPVariable[] buy;
+    private final int[] columnTypeId;
+    // yields of each column: entries colStart[c] until colStart[c + 1] of colResource and colQty
+    private final int[] colStart;
+    private final int[] colResource;
+    private final double[] colQty;
+    private final boolean[] isRaw;
+    private final boolean[] enabled;
+    private final boolean[] dominated;
+    private final int prunedRows;
+
+    private final double[] required;
+    private final double[] cost;
+    private double quota = Double.NaN;
+    // set when costs or quota changed since the dominated columns were last marked
+    private boolean dominanceStale = true;
+    private int dominatedColumns;
+    private boolean closed;
+
+    public ReprocessingModel(YieldMatrix yields, int[] resources) {
+        this.yields = yields;
+        this.resources = resources.clone();
+        solver = MPSolver.createSolver("GLOP");
+        parameters.setIntegerParam(MPSolverParameters.IntegerParam.INCREMENTALITY, MPSolverParameters.IncrementalityValues.INCREMENTALITY_ON.swigValue());
+        solver.objective().setMinimization();
+
+        int[] resourceOfType = new int[yields.types.size()];
+        Arrays.fill(resourceOfType, -1);
+        need = new MPConstraint[resources.length];
+        for (int r = 0; r < resources.length; r++) {
+            need[r] = solver.makeConstraint(0, INF, "Need_" + resources[r]);
+            int index = yields.types.indexOf(resources[r]);
+            if (index >= 0) resourceOfType[index] = r;
+        }
+
+        int[] rows = Presolve.rowsYielding(yields, resources);
+        prunedRows = yields.rows() - rows.length;
+        List<Integer> types = new ArrayList<>();
+        int[] start = new int[resources.length + rows.length + 1];
+        int[] resource = new int[resources.length + yields.materialIdx.length];
+        double[] qty = new double[resource.length];
+        int entries = 0;
+        for (int r = 0; r < resources.length; r++) {
+            types.add(resources[r]);
+            start[types.size() - 1] = entries;
+            resource[entries] = r;
+            qty[entries++] = 1;
+        }
+        for (int row : rows) {
+            types.add(yields.itemTypeId(row));
+            start[types.size() - 1] = entries;
+            for (int k = yields.rowStart[row]; k < yields.rowStart[row + 1]; k++) {
+                int r = resourceOfType[yields.materialIdx[k]];
+                if (r < 0) continue;
+                resource[entries] = r;
+                qty[entries++] = yields.qtyPerUnit[k];
+            }
+        }
+        start[types.size()] = entries;
+
+        columnTypeId = types.stream().mapToInt(Integer::intValue).toArray();
+        colStart = Arrays.copyOf(start, columnTypeId.length + 1);
+        colResource = Arrays.copyOf(resource, entries);
+        colQty = Arrays.copyOf(qty, entries);
+        isRaw = new boolean[columnTypeId.length];
+        Arrays.fill(isRaw, 0, resources.length, true);
+
+        buy = new MPVariable[columnTypeId.length];
+        for (int c = 0; c < buy.length; c++) {
+            buy[c] = solver.makeNumVar(0, 0, "Buy_" + columnTypeId[c]); // enabled once it has a price
+        }
+        required = new double[resources.length];
+        cost = new double[columnTypeId.length];
+        enabled = new boolean[columnTypeId.length];
+        dominated = new boolean[columnTypeId.length];
+    }
+
+    /**
+     * The yields the model was built from.
+     */
+    public YieldMatrix yields() {
+        return yields;
+    }
+
+    /**
+     * @return how many reprocessable items were left out because they yield none of the resources
+     */
+    public int prunedRows() {
+        return prunedRows;
+    }
+
+    public int columns() {
+        return columnTypeId.length;
+    }
+
+    public int columnTypeId(int column) {
+        return columnTypeId[column];
+    }
+
+    public int[] resources() {
+        return resources.clone();
+    }
+
+    public void setRequired(int resource, double quantity) {
+        if (required[resource] == quantity) return;
+        required[resource] = quantity;
+        need[resource].setLb(quantity);
+    }
+
+    /**
+     * Sets the reprocessing quota, rewriting the yield coefficients of the reprocessed columns.
+     */
+    public void setQuota(double quota) {
+        if (this.quota == quota) return;
+        this.quota = quota;
+        dominanceStale = true;
+        for (int c = 0; c < columnTypeId.length; c++) {
+            double factor = isRaw[c] ? 1 : quota;
+            for (int k = colStart[c]; k < colStart[c + 1]; k++) {
+                need[colResource[k]].setCoefficient(buy[c], colQty[k] * factor);
+            }
+        }
+    }
+
+    /**
+     * Sets the cost of buying and hauling one unit of the column's type. A cost of 0 or less means it cannot be
+     * bought, and the column is fixed at 0.
+     */
+    public void setCost(int column, double unitCost) {
+        if (cost[column] == unitCost) return;
+        cost[column] = unitCost;
+        dominanceStale = true;
+        solver.objective().setCoefficient(buy[column], unitCost > 0 ? unitCost : 0);
+    }
+
+    public Solution solve() {
+        if (dominanceStale) {
+            markDominated();
+            dominanceStale = false;
+        }
+
+        MPSolver.ResultStatus status = solver.solve(parameters);
+        if (status != MPSolver.ResultStatus.OPTIMAL && status != MPSolver.ResultStatus.FEASIBLE) {
+            return new Solution(status, Double.NaN, new int[0], new double[0], columnTypeId.length, prunedRows, dominatedColumns);
+        }
+        int n = 0;
+        int[] typeIds = new int[buy.length];
+        double[] quantities = new double[buy.length];
+        for (int c = 0; c < buy.length; c++) {
+            double bought = buy[c].solutionValue();
+            if (bought < 1e-9) continue;
+            typeIds[n] = columnTypeId[c];
+            quantities[n++] = bought;
+        }
+        return new Solution(status, solver.objective().value(), Arrays.copyOf(typeIds, n), Arrays.copyOf(quantities, n), columnTypeId.length, prunedRows, dominatedColumns);
+    }
+
+    /**
+     * Fixes the dominated and unpriced columns at 0 and frees all others.
+     */
+    private void markDominated() {
+        double[] colYield = new double[colQty.length];
+        for (int c = 0; c < columnTypeId.length; c++) {
+            double factor = isRaw[c] ? 1 : quota;
+            for (int k = colStart[c]; k < colStart[c + 1]; k++) {
+                colYield[k] = colQty[k] * factor;
+            }
+        }
+        dominatedColumns = Presolve.markDominated(colStart, colResource, colYield, cost, resources.length, dominated);
+        for (int c = 0; c < columnTypeId.length; c++) {
+            boolean enable = cost[c] > 0 && !dominated[c];
+            if (enable == enabled[c]) continue;
+            enabled[c] = enable;
+            buy[c].setUb(enable ? INF : 0);
+        }
+        Debug.print("Presolve: " + prunedRows + " items yield no resource, " + dominatedColumns + " of " + columnTypeId.length + " columns dominated");
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Frees the native solver; later calls do nothing.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        solver.delete();
+    }
+}
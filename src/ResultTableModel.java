@@ -0,0 +1,202 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Results of a solve, sorted and filtered in the model so that changing either is one pass over indices and never
+ * re-runs the solve. Cells are formatted on demand as the table paints them, so only the visible rows cost anything.
+ * Results streamed in while solving are merged into the sorted view and announced as inserted rows, so each batch
+ * costs about its own size plus one pass over the view, and the selection and scroll position are kept.
+ */
+public class ResultTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Item", "Region", "Profit", "Margin", "Volume (m3)"};
+    static final int ITEM = 0;
+    static final int REGION = 1;
+    static final int PROFIT = 2;
+    static final int MARGIN = 3;
+    static final int VOLUME = 4;
+
+    private final IntFunction<String> regionName;
+    private final List<ReprocessResult> results = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> lowerCaseNames = new ArrayList<>();
+    /** Indices into {@link #results} of the rows shown, in display order. */
+    private int[] view = new int[0];
+
+    /** Display order of two indices into {@link #results}; ties go by index, so the order is total. */
+    private interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    private int sortColumn = PROFIT;
+    private boolean ascending = false;
+    private String filter = "";
+
+    public ResultTableModel(IntFunction<String> regionName) {
+        this.regionName = regionName;
+    }
+
+    public void setResults(List<ReprocessResult> newResults) {
+        results.clear();
+        names.clear();
+        lowerCaseNames.clear();
+        append(newResults);
+        updateView();
+    }
+
+    /**
+     * Merges the results into the current view, keeping its order and filter.
+     */
+    public void addResults(List<ReprocessResult> newResults) {
+        int from = results.size();
+        append(newResults);
+        int[] added = sorted(visible(from, results.size()));
+        if (added.length == 0) return;
+
+        RowOrder order = order();
+        int[] merged = new int[view.length + added.length];
+        int[] insertedAt = new int[added.length];
+        for (int v = 0, a = 0, m = 0; m < merged.length; m++) {
+            if (a < added.length && (v == view.length || order.compare(added[a], view[v]) < 0)) {
+                insertedAt[a] = m;
+                merged[m] = added[a++];
+            } else {
+                merged[m] = view[v++];
+            }
+        }
+        view = merged;
+        // ascending, so each event is against the rows already announced
+        for (int first = 0, last; first < insertedAt.length; first = last + 1) {
+            for (last = first; last + 1 < insertedAt.length && insertedAt[last + 1] == insertedAt[last] + 1; last++) ;
+            fireTableRowsInserted(insertedAt[first], insertedAt[last]);
+        }
+    }
+
+    private void append(List<ReprocessResult> newResults) {
+        for (ReprocessResult result : newResults) {
+            results.add(result);
+            String name = Objects.toString(Cache.getItemName(result.typeId()), "");
+            names.add(name);
+            lowerCaseNames.add(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Shows only the items whose name contains the text, ignoring case.
+     */
+    public void setFilter(String text) {
+        filter = text.strip().toLowerCase(Locale.ROOT);
+        updateView();
+    }
+
+    /**
+     * Sorts by the column, or reverses the order if already sorted by it.
+     */
+    public void sortBy(int column) {
+        if (column == sortColumn) {
+            ascending = !ascending;
+        } else {
+            sortColumn = column;
+            ascending = column == ITEM || column == REGION;
+        }
+        updateView();
+    }
+
+    public ReprocessResult result(int row) {
+        return results.get(view[row]);
+    }
+
+    private void updateView() {
+        view = sorted(visible(0, results.size()));
+        fireTableDataChanged();
+    }
+
+    /**
+     * @return the indices in the range that pass the filter
+     */
+    private int[] visible(int from, int to) {
+        IntStream rows = IntStream.range(from, to);
+        if (!filter.isEmpty()) {
+            rows = rows.filter(i -> lowerCaseNames.get(i).contains(filter));
+        }
+        return rows.toArray();
+    }
+
+    private RowOrder order() {
+        RowOrder byColumn = switch (sortColumn) {
+            case ITEM -> (a, b) -> names.get(a).compareTo(names.get(b));
+            case REGION -> (a, b) -> regionName(a).compareTo(regionName(b));
+            case MARGIN -> (a, b) -> Double.compare(results.get(a).margin(), results.get(b).margin());
+            case VOLUME -> (a, b) -> Double.compare(results.get(a).volume(), results.get(b).volume());
+            default -> (a, b) -> Double.compare(results.get(a).profit(), results.get(b).profit());
+        };
+        return (a, b) -> {
+            int c = byColumn.compare(a, b);
+            if (c != 0) return ascending ? c : -c;
+            return Integer.compare(a, b);
+        };
+    }
+
+    private String regionName(int index) {
+        return Objects.toString(regionName.apply(results.get(index).region()), "");
+    }
+
+    /**
+     * Sorts the indices in display order, in place, by a merge sort over the primitive array.
+     *
+     * @return the indices
+     */
+    private int[] sorted(int[] indices) {
+        RowOrder order = order();
+        int[] buffer = new int[indices.length];
+        for (int width = 1; width < indices.length; width *= 2) {
+            for (int low = 0; low < indices.length - width; low += 2 * width) {
+                int mid = low + width;
+                int high = Math.min(low + 2 * width, indices.length);
+                if (order.compare(indices[mid - 1], indices[mid]) <= 0) continue; // already in order
+                System.arraycopy(indices, low, buffer, low, high - low);
+                for (int i = low, l = low, h = mid; i < high; i++) {
+                    indices[i] = h == high || l < mid && order.compare(buffer[l], buffer[h]) <= 0 ? buffer[l++] : buffer[h++];
+                }
+            }
+        }
+        return indices;
+    }
+
+    @Override
+    public int getRowCount() {
+        return view.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    /**
+     * Marks the sorted column with its direction.
+     */
+    @Override
+    public String getColumnName(int column) {
+        return column == sortColumn ? COLUMNS[column] + (ascending ? " ▲" : " ▼") : COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == PROFIT || column == VOLUME ? Double.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        ReprocessResult result = result(row);
+        return switch (column) {
+            case ITEM -> names.get(view[row]);
+            case REGION -> regionName.apply(result.region());
+            case PROFIT -> result.profit();
+            case MARGIN -> String.format("%.1f%%", 100 * result.margin());
+            case VOLUME -> result.volume();
+            default -> throw new IndexOutOfBoundsException(column);
+        };
+    }
+}
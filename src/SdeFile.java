@@ -0,0 +1,168 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned, columnar binary snapshot of the parts of invTypes.xls and invTypeMaterials.csv we use.
+ * <p>
+ * The header records size and modification time of both source dumps; a snapshot whose fingerprint does not
+ * match the dumps on disk is ignored and recompiled, as is one that is truncated or fails its CRC. All columns are
+ * written big-endian:
+ * <pre>
+ * int magic, int version, 4 x long fingerprint
+ * int types, int[types] typeId, double[types] volume, double[types] portionSize,
+ *     int[types + 1] nameOffset, byte[nameOffset[types]] utf-8 names
+ * int yieldTypes, int[yieldTypes] yieldTypeId, int rows, int[rows] rowItem, int[rows + 1] rowStart,
+ *     int[rowStart[rows]] materialIdx, double[rowStart[rows]] qtyPerUnit
+ * int crc32 of everything before it
+ * </pre>
+ */
+public final class SdeFile {
+    private static final int MAGIC = 0x45565344; // "EVSD"
+    private static final int VERSION = 2;
+
+    public record Contents(int[] typeIds, String[] names, double[] volume, double[] portionSize, YieldMatrix yields) {
+    }
+
+    private SdeFile() {
+    }
+
+    /**
+     * Memory-maps the snapshot.
+     *
+     * @return the contents, or null if there is no snapshot, it was compiled from different dumps or it is corrupt
+     */
+    public static Contents load(Path snapshot, Path invTypes, Path invTypeMaterials) throws IOException {
+        if (!Files.isRegularFile(snapshot)) return null;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 44 || in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            long[] fingerprint = fingerprint(invTypes, invTypeMaterials);
+            for (long expected : fingerprint) {
+                if (in.getLong() != expected) return null;
+            }
+            int end = in.limit() - Integer.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(in.slice(0, end));
+            if ((int) crc.getValue() != in.getInt(end)) {
+                Debug.print("Discarding corrupt " + snapshot);
+                return null;
+            }
+            in.limit(end);
+            return read(in);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            // a valid CRC over inconsistent columns; only a bug in the writer gets here
+            Debug.print("Discarding corrupt " + snapshot + ": " + e);
+            return null;
+        }
+    }
+
+    private static Contents read(MappedByteBuffer in) {
+        int types = in.getInt();
+        int[] typeIds = getInts(in, types);
+        double[] volume = getDoubles(in, types);
+        double[] portionSize = getDoubles(in, types);
+        int[] nameOffset = getInts(in, types + 1);
+        byte[] nameBytes = new byte[nameOffset[types]];
+        in.get(nameBytes);
+        String[] names = new String[types];
+        for (int i = 0; i < types; i++) {
+            names[i] = new String(nameBytes, nameOffset[i], nameOffset[i + 1] - nameOffset[i], StandardCharsets.UTF_8);
+        }
+
+        TypeIndex yieldTypes = TypeIndex.ofSorted(getInts(in, in.getInt()));
+        int rows = in.getInt();
+        int[] rowItem = getInts(in, rows);
+        int[] rowStart = getInts(in, rows + 1);
+        int[] materialIdx = getInts(in, rowStart[rows]);
+        double[] qtyPerUnit = getDoubles(in, rowStart[rows]);
+        YieldMatrix yields = YieldMatrix.of(yieldTypes, rowItem, rowStart, materialIdx, qtyPerUnit);
+        return new Contents(typeIds, names, volume, portionSize, yields);
+    }
+
+    /**
+     * Writes the snapshot next to its final location and moves it into place, so readers never see a partial file.
+     */
+    public static void write(Path snapshot, Path invTypes, Path invTypeMaterials, Contents contents) throws IOException {
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16), new CRC32());
+        try (DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (long l : fingerprint(invTypes, invTypeMaterials)) {
+                out.writeLong(l);
+            }
+
+            int types = contents.typeIds.length;
+            out.writeInt(types);
+            putInts(out, contents.typeIds);
+            putDoubles(out, contents.volume);
+            putDoubles(out, contents.portionSize);
+            byte[][] encoded = new byte[types][];
+            int offset = 0;
+            for (int i = 0; i < types; i++) {
+                encoded[i] = contents.names[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(offset);
+                offset += encoded[i].length;
+            }
+            out.writeInt(offset);
+            for (byte[] name : encoded) {
+                out.write(name);
+            }
+
+            YieldMatrix yields = contents.yields;
+            out.writeInt(yields.types.size());
+            putInts(out, yields.types.typeIds());
+            out.writeInt(yields.rows());
+            putInts(out, yields.rowItem);
+            putInts(out, yields.rowStart);
+            putInts(out, yields.materialIdx);
+            putDoubles(out, yields.qtyPerUnit);
+            out.writeInt((int) checked.getChecksum().getValue());
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long[] fingerprint(Path invTypes, Path invTypeMaterials) throws IOException {
+        return new long[]{
+                Files.size(invTypes), Files.getLastModifiedTime(invTypes).toMillis(),
+                Files.size(invTypeMaterials), Files.getLastModifiedTime(invTypeMaterials).toMillis()
+        };
+    }
+
+    private static int[] getInts(MappedByteBuffer in, int n) {
+        int[] values = new int[n];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + n * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] getDoubles(MappedByteBuffer in, int n) {
+        double[] values = new double[n];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + n * Double.BYTES);
+        return values;
+    }
+
+    private static void putInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void putDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+}
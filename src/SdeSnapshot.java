@@ -0,0 +1,147 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Everything read from one load of the SDE dumps: names, volumes, portion sizes and reprocessing yields.
+ * <p>
+ * A snapshot never changes once built. {@link Cache} publishes the current one and a reload swaps in a new one, so
+ * code that takes a snapshot at the start of a solve sees the same data until it is done, without locking. The
+ * columns are kept as the primitive arrays {@link SdeFile} maps them into; lookups binary search sorted orderings of
+ * the rows.
+ */
+public final class SdeSnapshot {
+    // in dump row order, one row per type
+    private final int[] typeIds;
+    private final String[] names;
+    private final double[] volume;
+    private final double[] portionSize;
+    private final YieldMatrix yields;
+    // the type ids sorted, and the row of each
+    private final int[] sortedTypeIds;
+    private final int[] rowOfType;
+    // rows sorted by name; of types sharing a name only the last row is kept
+    private final int[] rowsByName;
+    // built on first use; racing threads build equal indices and either may win
+    private volatile NameIndex nameIndex;
+
+    private SdeSnapshot(int[] typeIds, String[] names, double[] volume, double[] portionSize, YieldMatrix yields) {
+        this.typeIds = typeIds;
+        this.names = names;
+        this.volume = volume;
+        this.portionSize = portionSize;
+        this.yields = yields;
+
+        long[] byTypeId = new long[typeIds.length];
+        for (int row = 0; row < typeIds.length; row++) {
+            byTypeId[row] = (long) typeIds[row] << 32 | row;
+        }
+        Arrays.sort(byTypeId);
+        sortedTypeIds = new int[typeIds.length];
+        rowOfType = new int[typeIds.length];
+        for (int i = 0; i < byTypeId.length; i++) {
+            sortedTypeIds[i] = (int) (byTypeId[i] >> 32);
+            rowOfType[i] = (int) byTypeId[i];
+        }
+
+        // stable, so the last of equal names is the last row
+        int[] sorted = IntStream.range(0, names.length).boxed()
+                .sorted(Comparator.comparing(row -> names[row]))
+                .mapToInt(Integer::intValue).toArray();
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i + 1 < sorted.length && names[sorted[i]].equals(names[sorted[i + 1]])) continue;
+            sorted[distinct++] = sorted[i];
+        }
+        rowsByName = Arrays.copyOf(sorted, distinct);
+    }
+
+    public static SdeSnapshot of(SdeFile.Contents contents) {
+        return new SdeSnapshot(contents.typeIds(), contents.names(), contents.volume(), contents.portionSize(), contents.yields());
+    }
+
+    /**
+     * @param idToName in dump row order; of types sharing a name, the last one is found by {@link #typeId}
+     */
+    static SdeSnapshot of(LinkedHashMap<Integer, String> idToName, Map<Integer, Double> idToVolume, Map<Integer, Double> idToPortionSize, YieldMatrix yields) {
+        int[] typeIds = new int[idToName.size()];
+        String[] names = new String[typeIds.length];
+        double[] volume = new double[typeIds.length];
+        double[] portionSize = new double[typeIds.length];
+        int row = 0;
+        for (Map.Entry<Integer, String> entry : idToName.entrySet()) {
+            typeIds[row] = entry.getKey();
+            names[row] = entry.getValue();
+            volume[row] = idToVolume.get(entry.getKey());
+            portionSize[row] = idToPortionSize.get(entry.getKey());
+            row++;
+        }
+        return new SdeSnapshot(typeIds, names, volume, portionSize, yields);
+    }
+
+    /**
+     * The columns to write to an {@link SdeFile}, in dump row order so that duplicate names resolve as they did.
+     */
+    public SdeFile.Contents contents() {
+        return new SdeFile.Contents(typeIds, names, volume, portionSize, yields);
+    }
+
+    public int size() {
+        return typeIds.length;
+    }
+
+    /**
+     * @return the row of the type, or -1 if it is not in the dumps
+     */
+    private int row(int typeId) {
+        int index = Arrays.binarySearch(sortedTypeIds, typeId);
+        return index < 0 ? -1 : rowOfType[index];
+    }
+
+    private int knownRow(int typeId) {
+        int row = row(typeId);
+        if (row < 0) throw new IllegalArgumentException("Unknown type id " + typeId);
+        return row;
+    }
+
+    public String name(int typeId) {
+        int row = row(typeId);
+        return row < 0 ? null : names[row];
+    }
+
+    public Integer typeId(String name) {
+        int low = 0;
+        int high = rowsByName.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = names[rowsByName[mid]].compareTo(name);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return typeIds[rowsByName[mid]];
+        }
+        return null;
+    }
+
+    public double volume(int typeId) {
+        return volume[knownRow(typeId)];
+    }
+
+    public double portionSize(int typeId) {
+        return portionSize[knownRow(typeId)];
+    }
+
+    public YieldMatrix yields() {
+        return yields;
+    }
+
+    /**
+     * Case-insensitive index over all item names, built on first use.
+     */
+    public NameIndex nameIndex() {
+        NameIndex index = nameIndex;
+        if (index == null) {
+            index = NameIndex.of(typeIds, names);
+            nameIndex = index;
+        }
+        return index;
+    }
+}
@@ -1,63 +1,152 @@
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class SimpleSolver {
     interface PriceCalculator {
-        double calculate(Cache.APIResponse response);
+        /**
+         * Reads the price from a row of the market stats table, without allocating.
+         */
+        double calculate(MarketTable stats, int row);
 
-        static PriceCalculator BUY() {
-            return new PriceCalculator() {
-                @Override
-                public double calculate(Cache.APIResponse response) {
-                    if (response.buyOrders == 0) return 0;
-                    if (response.sellOrders == 0) return 0;
-                    if (response.buyVolume < 100) return 0;
-                    if (response.sellVolume < 100) return 0;
-                    return response.buyAvgFivePercent;
-                }
+        /**
+         * @param name buy, sell, max-buy or min-sell
+         * @return the calculator, or null for an unknown name
+         */
+        static PriceCalculator named(String name) {
+            return switch (name) {
+                case "buy" -> BUY();
+                case "sell" -> SELL();
+                case "max-buy" -> MAX_BUY();
+                case "min-sell" -> MIN_SELL();
+                default -> null;
             };
         }
 
+        static PriceCalculator BUY() {
+            return Standard.BUY;
+        }
+
         static PriceCalculator MAX_BUY() {
-            return new PriceCalculator() {
-                @Override
-                public double calculate(Cache.APIResponse response) {
-                    if (response.buyOrders == 0) return 0;
-                    if (response.sellOrders == 0) return 0;
-                    if (response.buyVolume < 100) return 0;
-                    if (response.sellVolume < 100) return 0;
-                    return response.maxBuy;
-                }
-            };
+            return Standard.MAX_BUY;
         }
 
         static PriceCalculator SELL() {
-            return new PriceCalculator() {
-                @Override
-                public double calculate(Cache.APIResponse response) {
-                    if (response.buyOrders == 0) return 0;
-                    if (response.sellOrders == 0) return 0;
-                    if (response.buyVolume < 100) return 0;
-                    if (response.sellVolume < 100) return 0;
-                    return response.sellAvgFivePercent;
-                }
-            };
+            return Standard.SELL;
         }
 
         static PriceCalculator MIN_SELL() {
-            return new PriceCalculator() {
+            return Standard.MIN_SELL;
+        }
+
+        /**
+         * One instance per calculator, so that solves looking one up each time still reuse the last evaluation.
+         * Types without both buy and sell orders, or traded in volumes below 100, are priced at 0.
+         */
+        enum Standard implements PriceCalculator {
+            BUY {
                 @Override
-                public double calculate(Cache.APIResponse response) {
-                    if (response.buyOrders == 0) return 0;
-                    if (response.sellOrders == 0) return 0;
-                    if (response.buyVolume < 100) return 0;
-                    if (response.sellVolume < 100) return 0;
-                    return response.minSell;
+                double price(MarketTable stats, int row) {
+                    return stats.buyAvgFivePercent(row);
+                }
+            },
+            MAX_BUY {
+                @Override
+                double price(MarketTable stats, int row) {
+                    return stats.maxBuy(row);
+                }
+            },
+            SELL {
+                @Override
+                double price(MarketTable stats, int row) {
+                    return stats.sellAvgFivePercent(row);
+                }
+            },
+            MIN_SELL {
+                @Override
+                double price(MarketTable stats, int row) {
+                    return stats.minSell(row);
                 }
             };
+
+            abstract double price(MarketTable stats, int row);
+
+            @Override
+            public double calculate(MarketTable stats, int row) {
+                if (stats.buyOrders(row) == 0) return 0;
+                if (stats.sellOrders(row) == 0) return 0;
+                if (stats.buyVolume(row) < 100) return 0;
+                if (stats.sellVolume(row) < 100) return 0;
+                return price(stats, row);
+            }
+        }
+    }
+
+    /**
+     * Called from worker threads while solving.
+     */
+    interface ProgressListener {
+        /**
+         * Items evaluated so far.
+         */
+        void progress(int done, int total);
+
+        /**
+         * Market stats fetched so far, before the evaluation starts.
+         */
+        default void fetched(int done, int total) {
+        }
+
+        /**
+         * Market stats that could not be fetched, even after retries; the type is priced as if it had no orders.
+         */
+        default void failed(int typeId, int regionId, IOException e) {
+        }
+
+        /**
+         * A profitable item, as soon as it is evaluated; not called for items whose evaluation was reused.
+         */
+        default void found(ReprocessResult result) {
+        }
+
+        /**
+         * Polled between fetches and batches of items; once true, solving stops with a
+         * {@link java.util.concurrent.CancellationException}.
+         */
+        default boolean cancelled() {
+            return false;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * An evaluation kept for reuse while resources, system and price calculator stay the same.
+     */
+    private record Evaluation(ReprocessEvaluator evaluator, List<Integer> resources, int system, PriceCalculator priceCalculator) {
+        boolean reusableFor(YieldMatrix yields, List<Integer> resources, int system, PriceCalculator priceCalculator) {
+            return evaluator.yields() == yields && this.resources.equals(resources) && this.system == system
+                    && this.priceCalculator == priceCalculator;
         }
     }
 
+    // a solver is shared by the GUI worker and the query server's handlers; the evaluator of the kept evaluation is
+    // only updated and read while holding the lock
+    private final Object evaluationLock = new Object();
+    private Evaluation lastEvaluation;
+
+    public SimpleSolver() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool evaluates the items in parallel; a pool of parallelism 1 evaluates them sequentially
+     */
+    public SimpleSolver(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     static void main() throws Exception {
         Cache.initialize();
         try {
@@ -70,7 +159,7 @@ public class SimpleSolver {
             resources.add(38);
             resources.add(39);
             resources.add(40);
-            new SimpleSolver().solve(resources, 10000002, 0.5f, 450, PriceCalculator.BUY());
+            new SimpleSolver().solve(resources, 10000002, 0.5f, 450, PriceCalculator.BUY(), (done, total) -> System.out.println(done + " / " + total), Integer.MAX_VALUE);
         } finally {
             Cache.save();
         }
@@ -78,76 +167,135 @@ public class SimpleSolver {
     }
 
 
-    public List<String> solve(List<Integer> resources, int system, float reprocessing, float costPerM3, PriceCalculator priceCalculator) throws Exception {
-        System.out.println("system = " + system);
-        boolean calcAll = resources.isEmpty();
-        List<String> headers = new ArrayList<>();
-        headers.add("Item");
-        List<String> rowName = new ArrayList<>();
-        List<Double[]> prices = new ArrayList<>();
-        Map<Integer, Integer> resourceToIndex = new HashMap<>();
-        Map<Integer, Double> resourceToPrice = new HashMap<>();
-        int index = 0;
-        for (int resource : resources) {
-            resourceToIndex.put(resource, index);
-            headers.add(Cache.getItemName(resource));
-            rowName.add(Cache.getItemName(resource));
-
-            Double[] priceList = new Double[resources.size()];
-            prices.add(priceList);
-            double price = priceCalculator.calculate(Cache.marketValue(resource, system)) + costPerM3 * Cache.idToVolume(resource);
-            priceList[index] = price;
-            resourceToPrice.put(resource, priceList[index]);
-
-            index++;
-        }
-
-        HashMap<Double, String> results = new HashMap<>();
-
-        int numberOfMats = Cache.getInvTypeMaterials().size();
-        int i = 0;
-        for (Map.Entry<Integer, List<Pair<Integer, Double>>> entry : Cache.getInvTypeMaterials().entrySet()) {
-            System.out.println(++i + " / " + numberOfMats);
-            Integer itemId = entry.getKey();
-            List<Pair<Integer, Double>> val = entry.getValue();
-
-            double volumeReprocessed = 0;
-            double sumReprocessed = 0;
-            for (Pair<Integer, Double> reprocessedResult : val) {
-                if (!resourceToPrice.containsKey(reprocessedResult.first) & !calcAll) continue;
-                double reprocessedValue = priceCalculator.calculate(Cache.marketValue(reprocessedResult.first, system)) * reprocessedResult.second * reprocessing;
-                Debug.print(priceCalculator.calculate(Cache.marketValue(reprocessedResult.first, system)) + " * " + reprocessedResult.second + " * " + reprocessing);
-                Debug.print(Cache.getItemName(reprocessedResult.first) + " : " + reprocessedValue);
-                volumeReprocessed += Cache.idToVolume(reprocessedResult.first) * reprocessedResult.second;
-                sumReprocessed += reprocessedValue;
+    /**
+     * Marks every type whose price {@link #solve} reads: the wanted materials and all items reprocessing into them.
+     */
+    private static boolean[] relevantTypes(YieldMatrix yields, boolean[] wanted) {
+        boolean[] relevant = wanted.clone();
+        for (int m = 0; m < wanted.length; m++) {
+            if (!wanted[m]) continue;
+            for (int k = yields.materialRowStart[m]; k < yields.materialRowStart[m + 1]; k++) {
+                relevant[yields.rowItem[yields.materialRows[k]]] = true;
             }
+        }
+        return relevant;
+    }
 
-            if (sumReprocessed == 0) continue; // doesn't reproduce to
+    /**
+     * Marks the resources in the matrix's type index; no resources at all means every material is wanted.
+     */
+    static boolean[] wanted(YieldMatrix yields, List<Integer> resources) {
+        boolean[] wanted = new boolean[yields.types.size()];
+        Arrays.fill(wanted, resources.isEmpty());
+        for (int resource : resources) {
+            int index = yields.types.indexOf(resource);
+            if (index >= 0) wanted[index] = true;
+        }
+        return wanted;
+    }
 
-            double itemPrice = priceCalculator.calculate(Cache.marketValue(itemId, system));
-            if (itemPrice == 0) continue;
+    /**
+     * Fetches and snapshots the prices of every type relevant to the wanted materials.
+     */
+    private static PriceVector prices(SdeSnapshot sde, boolean[] wanted, int system, PriceCalculator priceCalculator,
+                                      ProgressListener progressListener) throws IOException {
+        YieldMatrix yields = sde.yields();
+        TypeIndex types = yields.types;
+        boolean[] relevant = relevantTypes(yields, wanted);
+        List<Integer> relevantTypeIds = new ArrayList<>();
+        for (int t = 0; t < relevant.length; t++) {
+            if (relevant[t]) relevantTypeIds.add(types.typeId(t));
+        }
+        Cache.prefetchMarketValues(relevantTypeIds, system, progressListener);
+        return PriceVector.snapshot(sde, relevant, system, priceCalculator);
+    }
 
-            Debug.print(itemId);
-            Debug.print("Only item: " + itemPrice);
-            Debug.print("Pre hauling: " + sumReprocessed + " . " + Cache.idToVolume(itemId) + " * " + costPerM3 + " = " + (Cache.idToVolume(itemId) * costPerM3));
-            sumReprocessed = sumReprocessed - costPerM3 * Cache.idToVolume(itemId) + costPerM3 * volumeReprocessed;
-            Debug.print("Post hauling: " + sumReprocessed);
+    /**
+     * Evaluates all regions concurrently against the same yield data and keeps, for every profitable item, the region
+     * where it is most profitable. Prefetching and evaluating run in parallel across regions, so this costs about as
+     * much as the slowest region.
+     *
+     * @return one entry per item profitable in at least one region, in the region where it is most profitable,
+     * most profitable first
+     */
+    public List<ReprocessResult> solveRegions(List<Integer> resources, int[] systems, float reprocessing, float costPerM3, PriceCalculator priceCalculator) throws Exception {
+        return solveRegions(resources, systems, reprocessing, costPerM3, priceCalculator, (done, total) -> {
+        });
+    }
 
-            if (sumReprocessed > itemPrice) {
-                results.put(sumReprocessed - itemPrice, Cache.getItemName(itemId));
-                //System.out.println(Cache.getItemName(itemId) + "," + (sumReprocessed - itemPrice));
+    /**
+     * @param progressListener sees the fetches and evaluations of all regions, each reporting its own totals
+     */
+    public List<ReprocessResult> solveRegions(List<Integer> resources, int[] systems, float reprocessing, float costPerM3, PriceCalculator priceCalculator,
+                                         ProgressListener progressListener) throws Exception {
+        // the whole solve runs on one SDE snapshot, even if a reload swaps in another meanwhile
+        SdeSnapshot sde = Cache.sde();
+        YieldMatrix yields = sde.yields();
+        boolean[] wanted = wanted(yields, resources);
+
+        List<Future<ReprocessEvaluator>> evaluations = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int system : systems) {
+                evaluations.add(executor.submit(() -> {
+                    ReprocessEvaluator regionEvaluator = new ReprocessEvaluator(yields, wanted, prices(sde, wanted, system, priceCalculator, progressListener), reprocessing, costPerM3);
+                    regionEvaluator.evaluateAll(pool, progressListener);
+                    return regionEvaluator;
+                }));
+            }
+        }
+        ReprocessEvaluator[] evaluators = new ReprocessEvaluator[systems.length];
+        for (int r = 0; r < systems.length; r++) {
+            try {
+                evaluators[r] = evaluations.get(r).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) throw cause;
+                throw e;
             }
         }
 
+        List<ReprocessResult> best = new ArrayList<>();
+        for (int row = 0; row < yields.rows(); row++) {
+            int bestRegion = -1;
+            double bestProfit = Double.NaN;
+            for (int r = 0; r < systems.length; r++) {
+                double profit = evaluators[r].profit(row);
+                if (!Double.isNaN(profit) && (bestRegion < 0 || profit > bestProfit)) {
+                    bestRegion = r;
+                    bestProfit = profit;
+                }
+            }
+            if (bestRegion < 0) continue;
+            best.add(evaluators[bestRegion].result(row));
+        }
+        best.sort(Comparator.comparingDouble(ReprocessResult::profit).reversed());
+        return best;
+    }
+
+    public List<String> solve(List<Integer> resources, int system, float reprocessing, float costPerM3, PriceCalculator priceCalculator) throws Exception {
+        return solve(resources, system, reprocessing, costPerM3, priceCalculator, (done, total) -> {
+        }, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reports the results of {@link #results} as "++ profit block" / "-- item" lines, least profitable first.
+     *
+     * @param progressListener called from the worker threads as market stats are fetched and items evaluated
+     * @param maxResults       how many of the most profitable items to report
+     */
+    public List<String> solve(List<Integer> resources, int system, float reprocessing, float costPerM3, PriceCalculator priceCalculator,
+                              ProgressListener progressListener, int maxResults) throws Exception {
+        List<ReprocessResult> results = results(resources, system, reprocessing, costPerM3, priceCalculator, progressListener, maxResults).reversed();
+
         List<String> res = new ArrayList<>();
-        if (res.isEmpty()) return res;
+        if (results.isEmpty()) return res;
 
         res.add("+ Reprocess " + LocalDate.now() + "\n");
-        int len = (int) Math.floor(Math.log(results.keySet().stream().sorted().toList().getLast())) / 2;
+        int len = Math.max(1, (int) Math.floor(Math.log(results.getLast().profit())) / 2);
         boolean first = true;
         int lastBlock = 0;
         int blockSize = 10000;
-        for (Double key : results.keySet().stream().sorted().toList()) {
+        for (ReprocessResult result : results) {
+            double key = result.profit();
             if ((int) (key / blockSize) > lastBlock) {
                 lastBlock = (int) (key / blockSize);
                 res.add(String.format("++ %0" + len + "d-%0" + len + "d%n", lastBlock * blockSize, ((lastBlock + 1) * blockSize - 1)));
@@ -157,8 +305,57 @@ public class SimpleSolver {
                 res.add(String.format("++ %0" + len + "d-%0" + len + "d%n", 0, blockSize - 1));
             }
 
-            res.add("-- " + results.get(key) + "\n");
+            res.add("-- " + Cache.getItemName(result.typeId()) + "\n");
         }
         return res;
     }
+
+    /**
+     * Re-solving with the same resources, system and price calculator only recomputes the items whose prices
+     * changed; a different reprocessing quota or hauling cost is applied to the cached terms.
+     *
+     * @param progressListener called from the worker threads as market stats are fetched and items evaluated
+     * @param maxResults       how many of the most profitable items to return
+     * @return the most profitable items, most profitable first
+     */
+    public List<ReprocessResult> results(List<Integer> resources, int system, float reprocessing, float costPerM3, PriceCalculator priceCalculator,
+                                         ProgressListener progressListener, int maxResults) throws Exception {
+        Debug.print("system = " + system);
+        SdeSnapshot sde = Cache.sde();
+        YieldMatrix yields = sde.yields();
+        boolean[] wanted = wanted(yields, resources);
+        PriceVector prices = prices(sde, wanted, system, priceCalculator, progressListener);
+
+        synchronized (evaluationLock) {
+            Evaluation last = lastEvaluation;
+            if (last != null && last.reusableFor(yields, resources, system, priceCalculator)) {
+                ReprocessEvaluator evaluator = last.evaluator();
+                int recomputed = evaluator.update(prices);
+                evaluator.setReprocessing(reprocessing);
+                evaluator.setCostPerM3(costPerM3);
+                Debug.print("Recomputed " + recomputed + " rows");
+                progressListener.progress(yields.rows(), yields.rows());
+                return top(evaluator, maxResults);
+            }
+        }
+        // evaluated without the lock, so other solves are not held up; only kept once complete, so a cancelled
+        // evaluation is never reused
+        ReprocessEvaluator fresh = new ReprocessEvaluator(yields, wanted, prices, reprocessing, costPerM3);
+        fresh.evaluateAll(pool, progressListener);
+        List<ReprocessResult> results = top(fresh, maxResults);
+        synchronized (evaluationLock) {
+            lastEvaluation = new Evaluation(fresh, List.copyOf(resources), system, priceCalculator);
+        }
+        return results;
+    }
+
+    private List<ReprocessResult> top(ReprocessEvaluator evaluator, int maxResults) {
+        TopK top = evaluator.top(pool, maxResults).sorted();
+
+        List<ReprocessResult> results = new ArrayList<>(top.size());
+        for (int i = top.size() - 1; i >= 0; i--) {
+            results.add(evaluator.result(evaluator.row(top.typeId(i))));
+        }
+        return results;
+    }
 }
@@ -1,13 +1,16 @@
 import com.google.ortools.Loader;
-import com.google.ortools.linearsolver.*;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class Solver {
-    private static double INF = Double.POSITIVE_INFINITY;
+    private static final SimpleSolver.PriceCalculator PRICE = (stats, row) -> stats.buyAvgFivePercent(row);
+
+    // bounds the native solvers kept alive; each holds a full LP
+    private static final int MAX_MODELS = 16;
+
+    // one persistent model per region and resource set, least recently used first; guarded by itself
+    private static final Map<String, ReprocessingModel> models = new LinkedHashMap<>(16, 0.75f, true);
 
     static void main() throws Exception {
         Loader.loadNativeLibraries();
@@ -15,130 +18,91 @@ public class Solver {
         System.out.println(System.getProperty("java.library.path"));
         Cache.initialize();
         try {
-            solve();
+            // GUI:
+            Map<String, Integer> required = new HashMap<>();
+            required.put("Tritanium", 10000000);
+            double reprocessingQuota = 0.5;
+            double transportationCostPerM3 = 300;
+            // END GUI
+
+            Map<Integer, Double> requiredIds = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : required.entrySet()) {
+                requiredIds.put(Cache.getItemId(entry.getKey()), (double) entry.getValue());
+            }
+            ReprocessingModel.Solution solution = solve(requiredIds, 10000002, reprocessingQuota, transportationCostPerM3); // The forge
+            System.out.println("status = " + solution.status() + ", cost = " + solution.cost());
+            System.out.println("presolve removed " + solution.prunedRows() + " items yielding none of the resources and "
+                    + solution.dominated() + " dominated columns; " + (solution.columns() - solution.dominated()) + " columns left");
+            for (int i = 0; i < solution.typeIds().length; i++) {
+                System.out.printf("Item %s: buy=%.3f%n", Cache.getItemName(solution.typeIds()[i]), solution.quantities()[i]);
+            }
         } finally {
             Cache.save();
         }
     }
 
-    static double apiToPrice(Cache.APIResponse apiResponse) {
-        return apiResponse.buyAvgFivePercent;
-    }
-
-    static void solve() throws IOException {
-
-        MPSolver solver = MPSolver.createSolver("GLOP");
-
-
-        // GUI:
-        Map<String, Integer> required = new HashMap<>();
-        required.put("Tritanium", 10000000);
-        double reprocessingQuota = 0.5;
-        double transportationCostPerM3 = 300;
-        // END GUI
-
-        Map<Integer, List<Pair<Integer, Double>>> invTypeMaterials = Cache.getInvTypeMaterials();
-
-
-        Map<Integer, MPConstraint> constraintMap = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : required.entrySet()) {
-            if (entry.getValue() > 0) {
-                Debug.print("Requesting " + entry.getValue() + " " + entry.getKey());
-                constraintMap.put(Cache.getItemId(entry.getKey()), solver.makeConstraint(entry.getValue(), INF));
+    /**
+     * Finds the cheapest items to buy and reprocess for the required quantities. The LP for the region and set of
+     * resources is built on first use; later calls only update prices, quantities and the quota before re-solving.
+     */
+    static ReprocessingModel.Solution solve(Map<Integer, Double> required, int region, double reprocessingQuota, double transportationCostPerM3) throws IOException {
+        SdeSnapshot sde = Cache.sde();
+        int[] resources = required.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        String key = region + ":" + Arrays.toString(resources);
+        while (true) {
+            ReprocessingModel model = model(key, sde.yields(), resources);
+            List<Integer> pricedTypes = new ArrayList<>();
+            for (int c = 0; c < model.columns(); c++) {
+                pricedTypes.add(model.columnTypeId(c));
             }
-        }
-
-        int itemsUnderConsideration = 2 * (invTypeMaterials.size() + constraintMap.size());
-        int originalUndercons = invTypeMaterials.size() + constraintMap.size();
-
-        int index = 0;
-
-        int[] itemIds = new int[itemsUnderConsideration];
-        double[] price = new double[itemsUnderConsideration];
-        double[] volume = new double[itemsUnderConsideration];
-        Map<Integer, double[]> yields = new HashMap<>();
-
-
-        MPVariable[] buy = new MPVariable[itemsUnderConsideration];
-        Map<Integer, MPVariable[]> convs = new HashMap<>();
-
-
-        Map<Integer, MPConstraint> resourceConstraints = new HashMap<>();
-
-        MPObjective objective = solver.objective();
-        objective.setMinimization();
-
-
-        for (String name : required.keySet().stream().sorted().toList()) {
-            yields.put(Cache.getItemId(name), new double[itemsUnderConsideration]);
-        }
-
-        // Add all resources
-        for (String name : required.keySet().stream().sorted().toList()) {
-            int itemId = Cache.getItemId(name);
-            itemIds[index] = itemId;
-            price[index] = apiToPrice(Cache.marketValue(itemId));
-            volume[index] = Cache.idToVolume(itemId);
-            yields.get(itemId)[index] = 1;
-
-            buy[index] = solver.makeNumVar(0, INF, "Buy_" + itemId);
-            convs.computeIfAbsent(itemId, _ -> new MPVariable[itemsUnderConsideration])[index] = solver.makeNumVar(0, INF, "Conv_" + itemId);
-
-            resourceConstraints.put(itemId, solver.makeConstraint(required.get(name), INF));
-            resourceConstraints.get(itemId).setCoefficient(convs.get(itemId)[index], yields.get(itemId)[index]);
-
-            MPConstraint limit = solver.makeConstraint(0, INF);
-            limit.setCoefficient(convs.get(itemId)[index], 1);
-            limit.setCoefficient(buy[index], -1);
-
-            objective.setCoefficient(buy[index], price[index]);
-            objective.setCoefficient(buy[index], transportationCostPerM3 * volume[index]);
-
-            index++;
-        }
-
-        // Add all items
-        for (Map.Entry<Integer, List<Pair<Integer, Double>>> entry : invTypeMaterials.entrySet()) {
-            int itemId = entry.getKey();
-            List<Pair<Integer, Double>> reprocessedValues = entry.getValue();
-            itemIds[index] = itemId;
-            price[index] = apiToPrice(Cache.marketValue(itemId));
-            volume[index] = Cache.idToVolume(itemId);
-            for (Pair<Integer, Double> repr : reprocessedValues) {
-                yields.computeIfAbsent(repr.first, _ -> new double[itemsUnderConsideration])[index] = repr.second * reprocessingQuota;
+            Cache.prefetchMarketValues(pricedTypes, region);
+
+            synchronized (model) {
+                if (model.isClosed()) continue; // replaced or evicted since it was looked up
+                for (int r = 0; r < resources.length; r++) {
+                    Debug.print("Requesting " + required.get(resources[r]) + " " + sde.name(resources[r]));
+                    model.setRequired(r, required.get(resources[r]));
+                }
+                model.setQuota(reprocessingQuota);
+                for (int c = 0; c < model.columns(); c++) {
+                    int typeId = model.columnTypeId(c);
+                    double price = Cache.price(typeId, region, PRICE);
+                    model.setCost(c, price <= 0 ? 0 : price + transportationCostPerM3 * sde.volume(typeId));
+                }
+                ReprocessingModel.Solution solution = model.solve();
+                return solution;
             }
+        }
+    }
 
-            buy[index] = solver.makeNumVar(0, INF, "Buy_" + itemId);
-            MPConstraint limit = solver.makeConstraint(0, INF);
-            for (Pair<Integer, Double> repr : reprocessedValues) {
-                if (!resourceConstraints.containsKey(repr.first)) continue;
-                MPVariable conv = solver.makeNumVar(0, INF, "Conv_" + itemId);
-                convs.computeIfAbsent(repr.first, _ -> new MPVariable[itemsUnderConsideration])[index] = conv;
-
-                resourceConstraints.get(repr.first).setCoefficient(conv, yields.get(repr.first)[index]);
-
-                limit.setCoefficient(conv, 1);
+    /**
+     * The model for the region and resources, rebuilt if it was built from an SDE snapshot since reloaded. Replaced
+     * and evicted models are closed once the solves still running on them are done.
+     */
+    private static ReprocessingModel model(String key, YieldMatrix yields, int[] resources) {
+        List<ReprocessingModel> retired = new ArrayList<>();
+        ReprocessingModel model;
+        synchronized (models) {
+            model = models.get(key);
+            if (model == null || model.yields() != yields) {
+                if (model != null) retired.add(model);
+                model = new ReprocessingModel(yields, resources);
+                models.put(key, model);
+                Iterator<ReprocessingModel> leastRecentlyUsed = models.values().iterator();
+                while (models.size() > MAX_MODELS) {
+                    retired.add(leastRecentlyUsed.next());
+                    leastRecentlyUsed.remove();
+                }
             }
-            limit.setCoefficient(buy[index], -1);
-
-            index++;
         }
-
-        System.out.println("itemsUnderConsideration = " + itemsUnderConsideration);
-        System.out.println("originalUndercons = " + originalUndercons);
-        System.out.println("index = " + index);
-
-        System.out.println("Number of constraints: " + solver.constraints().length);
-        solver.solve();/*
-        for (int i = 0; i < index-1; i++) {
-            double bought = buy[i].solutionValue();
-
-            if (bought < 1e-9) continue;
-
-            System.out.printf(
-                    "Item %s: buy=%.3f\n",
-                    Cache.getItemName(itemIds[i]), bought
-            );
-        }*/
+        for (ReprocessingModel old : retired) {
+            // solves hold the model's monitor, so this waits for them without holding up the caller
+            Thread.ofVirtual().name("model-close").start(() -> {
+                synchronized (old) {
+                    old.close();
+                }
+            });
+        }
+        return model;
     }
 }
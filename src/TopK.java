@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the {@code k} largest (score, typeId) pairs offered to it, in a primitive min-heap. Equal scores are kept
+ * side by side; nothing is overwritten.
+ */
+public final class TopK {
+    private final int k;
+    private double[] score;
+    private int[] typeId;
+    private int size;
+
+    public TopK(int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be positive: " + k);
+        this.k = k;
+        int capacity = Math.min(k, 64);
+        score = new double[capacity];
+        typeId = new int[capacity];
+    }
+
+    private TopK(int k, double[] score, int[] typeId, int size) {
+        this.k = k;
+        this.score = score;
+        this.typeId = typeId;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(double s, int id) {
+        if (size < k) {
+            if (size == score.length) {
+                int capacity = (int) Math.min(k, Math.max(16, 2L * size));
+                score = Arrays.copyOf(score, capacity);
+                typeId = Arrays.copyOf(typeId, capacity);
+            }
+            score[size] = s;
+            typeId[size] = id;
+            siftUp(size++);
+        } else if (s > score[0]) {
+            score[0] = s;
+            typeId[0] = id;
+            siftDown(0);
+        }
+    }
+
+    public TopK merge(TopK other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.score[i], other.typeId[i]);
+        }
+        return this;
+    }
+
+    /**
+     * @return a copy whose entries are in ascending score order, for {@link #score(int)} and {@link #typeId(int)}
+     */
+    public TopK sorted() {
+        TopK heap = new TopK(k, Arrays.copyOf(score, size), Arrays.copyOf(typeId, size), size);
+        double[] sortedScore = new double[size];
+        int[] sortedTypeId = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedScore[i] = heap.score[0];
+            sortedTypeId[i] = heap.typeId[0];
+            heap.size--;
+            heap.score[0] = heap.score[heap.size];
+            heap.typeId[0] = heap.typeId[heap.size];
+            heap.siftDown(0);
+        }
+        // ascending order is itself a valid min-heap
+        return new TopK(k, sortedScore, sortedTypeId, size);
+    }
+
+    public double score(int index) {
+        return score[index];
+    }
+
+    public int typeId(int index) {
+        return typeId[index];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (score[parent] <= score[i]) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && score[left] < score[smallest]) smallest = left;
+            if (right < size && score[right] < score[smallest]) smallest = right;
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double s = score[a];
+        score[a] = score[b];
+        score[b] = s;
+        int id = typeId[a];
+        typeId[a] = typeId[b];
+        typeId[b] = id;
+    }
+}
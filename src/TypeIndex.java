@@ -0,0 +1,48 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compact, dense numbering of a set of type ids, so per-type data can live in primitive arrays.
+ */
+public final class TypeIndex {
+    private final int[] typeIds;
+
+    private TypeIndex(int[] sortedDistinctTypeIds) {
+        typeIds = sortedDistinctTypeIds;
+    }
+
+    public static TypeIndex of(Collection<Integer> typeIds) {
+        return of(typeIds.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public static TypeIndex of(int[] typeIds) {
+        return new TypeIndex(Arrays.stream(typeIds).sorted().distinct().toArray());
+    }
+
+    /**
+     * Wraps an array that is already sorted and free of duplicates, without copying it.
+     */
+    static TypeIndex ofSorted(int[] sortedDistinctTypeIds) {
+        return new TypeIndex(sortedDistinctTypeIds);
+    }
+
+    int[] typeIds() {
+        return typeIds;
+    }
+
+    public int size() {
+        return typeIds.length;
+    }
+
+    public int typeId(int index) {
+        return typeIds[index];
+    }
+
+    /**
+     * @return the compact index of the type, or -1 if it is not part of this index
+     */
+    public int indexOf(int typeId) {
+        int index = Arrays.binarySearch(typeIds, typeId);
+        return index < 0 ? -1 : index;
+    }
+}
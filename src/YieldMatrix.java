@@ -0,0 +1,140 @@
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Immutable reprocessing yields in compressed sparse row form. Row {@code r} is one reprocessable item, its
+ * yields are the entries {@code rowStart[r] until rowStart[r + 1]} of {@link #materialIdx} and
+ * {@link #qtyPerUnit}. Items and materials share one {@link TypeIndex}, and the reverse index lists, for every
+ * material, the rows that yield it.
+ */
+public final class YieldMatrix {
+    public final TypeIndex types;
+    /** Type index of the item reprocessed in each row. */
+    public final int[] rowItem;
+    public final int[] rowStart;
+    /** Type index of the material of each entry. */
+    public final int[] materialIdx;
+    /** Units of material yielded per unit of item, at 100% reprocessing. */
+    public final double[] qtyPerUnit;
+    /** Entries {@code materialRowStart[m] until materialRowStart[m + 1]} of {@link #materialRows}. */
+    public final int[] materialRowStart;
+    public final int[] materialRows;
+
+    private YieldMatrix(TypeIndex types, int[] rowItem, int[] rowStart, int[] materialIdx, double[] qtyPerUnit) {
+        this.types = types;
+        this.rowItem = rowItem;
+        this.rowStart = rowStart;
+        this.materialIdx = materialIdx;
+        this.qtyPerUnit = qtyPerUnit;
+
+        materialRowStart = new int[types.size() + 1];
+        for (int r = 0; r < rows(); r++) {
+            for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                materialRowStart[materialIdx[k] + 1]++;
+            }
+        }
+        for (int m = 0; m < types.size(); m++) {
+            materialRowStart[m + 1] += materialRowStart[m];
+        }
+        materialRows = new int[materialIdx.length];
+        int[] fill = Arrays.copyOf(materialRowStart, types.size());
+        for (int r = 0; r < rows(); r++) {
+            for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                materialRows[fill[materialIdx[k]]++] = r;
+            }
+        }
+    }
+
+    /**
+     * Reassembles a matrix from previously built columns, e.g. from {@link SdeFile}.
+     */
+    static YieldMatrix of(TypeIndex types, int[] rowItem, int[] rowStart, int[] materialIdx, double[] qtyPerUnit) {
+        return new YieldMatrix(types, rowItem, rowStart, materialIdx, qtyPerUnit);
+    }
+
+    /**
+     * Divides the yields of every row by the item's portion size, for yields parsed per portion before the portion
+     * sizes were known.
+     */
+    YieldMatrix perUnit(IntToDoubleFunction portionSize) {
+        double[] qty = qtyPerUnit.clone();
+        for (int r = 0; r < rows(); r++) {
+            double portion = portionSize.applyAsDouble(itemTypeId(r));
+            for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                qty[k] /= portion;
+            }
+        }
+        return new YieldMatrix(types, rowItem, rowStart, materialIdx, qty);
+    }
+
+    public int rows() {
+        return rowItem.length;
+    }
+
+    public int itemTypeId(int row) {
+        return types.typeId(rowItem[row]);
+    }
+
+    /**
+     * Collects (item, material, quantity) triples in any order.
+     */
+    public static class Builder {
+        private int size;
+        private int[] items = new int[1024];
+        private int[] materials = new int[1024];
+        private double[] quantities = new double[1024];
+
+        public Builder add(int itemTypeId, int materialTypeId, double qtyPerUnit) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                materials = Arrays.copyOf(materials, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            items[size] = itemTypeId;
+            materials[size] = materialTypeId;
+            quantities[size] = qtyPerUnit;
+            size++;
+            return this;
+        }
+
+        public YieldMatrix build() {
+            int[] allTypes = Arrays.copyOf(items, size * 2);
+            System.arraycopy(materials, 0, allTypes, size, size);
+            TypeIndex types = TypeIndex.of(allTypes);
+
+            // counting sort of the entries by item
+            int[] entriesPerType = new int[types.size() + 1];
+            int[] itemIdx = new int[size];
+            for (int i = 0; i < size; i++) {
+                itemIdx[i] = types.indexOf(items[i]);
+                entriesPerType[itemIdx[i] + 1]++;
+            }
+            int rows = 0;
+            for (int t = 0; t < types.size(); t++) {
+                if (entriesPerType[t + 1] > 0) rows++;
+                entriesPerType[t + 1] += entriesPerType[t];
+            }
+
+            int[] rowItem = new int[rows];
+            int[] rowStart = new int[rows + 1];
+            int row = 0;
+            for (int t = 0; t < types.size(); t++) {
+                if (entriesPerType[t + 1] == entriesPerType[t]) continue;
+                rowItem[row] = t;
+                rowStart[row] = entriesPerType[t];
+                row++;
+            }
+            rowStart[rows] = size;
+
+            int[] materialIdx = new int[size];
+            double[] qtyPerUnit = new double[size];
+            int[] fill = Arrays.copyOf(entriesPerType, types.size());
+            for (int i = 0; i < size; i++) {
+                int k = fill[itemIdx[i]]++;
+                materialIdx[k] = types.indexOf(materials[i]);
+                qtyPerUnit[k] = quantities[i];
+            }
+            return new YieldMatrix(types, rowItem, rowStart, materialIdx, qtyPerUnit);
+        }
+    }
+}